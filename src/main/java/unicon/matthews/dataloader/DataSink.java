@@ -0,0 +1,41 @@
+package unicon.matthews.dataloader;
+
+import java.util.Collection;
+
+import org.apereo.model.entity.ClassMapping;
+import org.apereo.model.entity.DataSync;
+import org.apereo.model.entity.UserMapping;
+import org.apereo.model.oneroster.Enrollment;
+import org.apereo.model.oneroster.LineItem;
+import org.apereo.model.oneroster.User;
+import org.apereo.openlrw.caliper.Event;
+
+/**
+ * Destination for converted roster entities and Caliper events. Loaders written against this interface can switch
+ * between posting live to OpenLRW with {@link MatthewsClient} and exporting files with {@link NdjsonFileSink}.
+ */
+public interface DataSink {
+
+    void postEnrollment(Enrollment enrollment);
+
+    void postUser(User user);
+
+    void postUserMapping(UserMapping userMapping);
+
+    void postLineItem(LineItem lineItem);
+
+    void postClass(org.apereo.model.oneroster.Class klass);
+
+    void postCourse(org.apereo.model.oneroster.Course course);
+
+    void postClassMapping(ClassMapping classMapping);
+
+    void postEvent(Event event, String sensorName);
+
+    void postEvents(Collection<Event> events, String sensorName);
+
+    void postDataSync(DataSync dataSync);
+
+    DataSync getLatestDataSyncForType(DataSync.DataSyncType dataSyncType);
+
+}
@@ -0,0 +1,155 @@
+package unicon.matthews.dataloader;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apereo.model.entity.DataSync;
+import org.apereo.model.entity.DataSync.DataSyncType;
+
+import unicon.matthews.dataloader.util.DaemonThreadFactory;
+
+/**
+ * Cache of the latest {@link DataSync} for every {@link DataSyncType}, fetched concurrently at startup.
+ *
+ * <p>Building the checkpoints immediately requests the latest sync of every type in parallel through an already logged
+ * in {@link DataSink} (normally a {@link MatthewsClient}). Besides overlapping the round trips, the parallel requests
+ * open and warm up to one keep-alive connection per type to the base URL, which later posts then reuse. Results are
+ * cached for the time to live, so a short incremental run asks OpenLRW for its checkpoints once:
+ * <pre>{@code
+ * MatthewsClient matthewsClient = new MatthewsClient.Builder()...build();   // logs in
+ * DataSyncCheckpoints checkpoints = new DataSyncCheckpoints.Builder()
+ *     .withSink(matthewsClient)
+ *     .build();                                                           // prefetch starts
+ * DataSync lastSync = checkpoints.getLatest(dataSyncType);               // waits only for this type
+ * }</pre>
+ * </p>
+ *
+ * <p>Call {@link #invalidate(DataSyncType)} after posting a new {@link DataSync} so the next lookup sees it. Only found
+ * syncs are cached: {@link MatthewsClient#getLatestDataSyncForType} also returns null when the request fails, so a
+ * missing sync is looked up again rather than turning a transient failure into a full load for the rest of the run.</p>
+ */
+public class DataSyncCheckpoints implements AutoCloseable {
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private DataSink sink;
+    private long ttlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MILLIS);
+    private ExecutorService executorService;
+    private boolean ownsExecutorService;
+
+    private final ConcurrentMap<DataSyncType, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+
+    private DataSyncCheckpoints() {}
+
+    public static class Builder {
+        DataSyncCheckpoints _checkpoints = new DataSyncCheckpoints();
+
+        public Builder withSink(DataSink sink) {
+            _checkpoints.sink = sink;
+            return this;
+        }
+
+        public Builder withTtl(long duration, TimeUnit unit) {
+            _checkpoints.ttlNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @param executorService runs the lookups, and is left running by {@link DataSyncCheckpoints#close()}
+         */
+        public Builder withExecutorService(ExecutorService executorService) {
+            _checkpoints.executorService = executorService;
+            return this;
+        }
+
+        /**
+         * Starts fetching the latest sync of every type and returns without waiting for the results.
+         */
+        public DataSyncCheckpoints build() {
+            if (_checkpoints.sink == null || _checkpoints.ttlNanos <= 0) {
+                throw new IllegalStateException();
+            }
+            if (_checkpoints.executorService == null) {
+                _checkpoints.executorService = Executors.newFixedThreadPool(DataSyncType.values().length,
+                        new DaemonThreadFactory("datasync-prefetch"));
+                _checkpoints.ownsExecutorService = true;
+            }
+            _checkpoints.refreshAll();
+            return _checkpoints;
+        }
+    }
+
+    /**
+     * Returns the latest sync for the type, waiting for an in flight fetch or fetching again once the cached value has
+     * expired.
+     *
+     * @return the latest sync, or null if OpenLRW has none for the type
+     */
+    public DataSync getLatest(DataSyncType dataSyncType) {
+        Checkpoint checkpoint = checkpoints.compute(dataSyncType,
+                (type, current) -> current == null || current.isExpired() ? fetch(type) : current);
+        Optional<DataSync> latest;
+        try {
+            latest = checkpoint.latest.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching the latest " + dataSyncType + " sync", e);
+        } catch (ExecutionException e) {
+            // Only reached for sinks which throw; MatthewsClient reports failures as null
+            checkpoints.remove(dataSyncType, checkpoint);
+            throw new IllegalStateException("Unable to fetch the latest " + dataSyncType + " sync", e.getCause());
+        }
+        if (!latest.isPresent()) {
+            // Could be a failed request, so ask again next time
+            checkpoints.remove(dataSyncType, checkpoint);
+        }
+        return latest.orElse(null);
+    }
+
+    /**
+     * Discards the cached sync for the type, e.g. after posting a new one.
+     */
+    public void invalidate(DataSyncType dataSyncType) {
+        checkpoints.remove(dataSyncType);
+    }
+
+    /**
+     * Fetches the latest sync of every type again, in parallel.
+     */
+    public void refreshAll() {
+        for (DataSyncType type : DataSyncType.values()) {
+            checkpoints.put(type, fetch(type));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    private Checkpoint fetch(DataSyncType dataSyncType) {
+        return new Checkpoint(CompletableFuture.supplyAsync(
+                () -> Optional.ofNullable(sink.getLatestDataSyncForType(dataSyncType)), executorService));
+    }
+
+    private class Checkpoint {
+        final CompletableFuture<Optional<DataSync>> latest;
+        final long fetchedAtNanos = System.nanoTime();
+
+        Checkpoint(CompletableFuture<Optional<DataSync>> latest) {
+            this.latest = latest;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - fetchedAtNanos > ttlNanos;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package unicon.matthews.dataloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apereo.openlrw.caliper.Event;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.client.RestClientException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Splits a stream of events into envelopes which stay under a byte budget and an event count, posting each one through
+ * {@link DataSink#postEvents(Collection, String)} as soon as it is full.
+ *
+ * <p>The serialized size of each event is measured as it is added. The byte budget is tuned after every post towards
+ * the configured target latency: envelopes that come back faster than the target grow the budget, slower ones shrink
+ * it, and a failed post halves it. This keeps envelopes large enough to avoid wasted round trips but small enough that
+ * OpenLRW does not reject or time out on them.</p>
+ *
+ * <p>Events are only dropped from the packer once the envelope holding them has been posted. When a post fails the
+ * exception is rethrown and the unsent events stay pending; the next {@link #flush()} sends them again, split under the
+ * halved budget.
+ * <pre>{@code
+ * try (EnvelopePacker packer = new EnvelopePacker.Builder()
+ *         .withMatthewsClient(matthewsClient)
+ *         .withSensor(sensorName)
+ *         .build()) {
+ *     events.forEach(packer::add);
+ * }
+ * }</pre>
+ * </p>
+ */
+public class EnvelopePacker implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_EVENTS = 1000;
+    public static final long DEFAULT_MIN_BYTES = 16 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_TARGET_LATENCY_MILLIS = 2000;
+
+    // Bytes added by the envelope around the events (sensor, sendTime, dataVersion and the data array)
+    private static final int ENVELOPE_OVERHEAD_BYTES = 256;
+    private static final double MAX_GROWTH = 1.25;
+    private static final double MAX_SHRINK = 0.5;
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private DataSink sink;
+    private String sensor;
+    private ObjectMapper objectMapper;
+    private int maxEvents = DEFAULT_MAX_EVENTS;
+    private long minBytes = DEFAULT_MIN_BYTES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long targetLatencyMillis = DEFAULT_TARGET_LATENCY_MILLIS;
+    private boolean autoTune = true;
+
+    private long byteBudget;
+    private double smoothedLatencyMillis = -1;
+    private final CountingOutputStream counter = new CountingOutputStream();
+    private final List<Event> pending = new ArrayList<>();
+    private final List<Long> pendingSizes = new ArrayList<>();
+    private long pendingBytes = ENVELOPE_OVERHEAD_BYTES;
+
+    private long envelopesPosted;
+    private long eventsPosted;
+    private long bytesPosted;
+
+    private EnvelopePacker() {}
+
+    public static class Builder {
+        EnvelopePacker _packer = new EnvelopePacker();
+
+        public Builder withMatthewsClient(MatthewsClient matthewsClient) {
+            _packer.sink = matthewsClient;
+            return this;
+        }
+
+        public Builder withSink(DataSink sink) {
+            _packer.sink = sink;
+            return this;
+        }
+
+        public Builder withSensor(String sensor) {
+            _packer.sensor = sensor;
+            return this;
+        }
+
+        /**
+         * Defaults to the mapper built by <code>Jackson2ObjectMapperBuilder</code>.
+         */
+        public Builder withObjectMapper(ObjectMapper objectMapper) {
+            _packer.objectMapper = objectMapper;
+            return this;
+        }
+
+        public Builder withMaxEvents(int maxEvents) {
+            _packer.maxEvents = maxEvents;
+            return this;
+        }
+
+        /**
+         * @param minBytes the lower bound of the byte budget
+         * @param maxBytes the upper bound of the byte budget, and the starting budget
+         */
+        public Builder withByteBudget(long minBytes, long maxBytes) {
+            _packer.minBytes = minBytes;
+            _packer.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder withTargetLatency(long duration, TimeUnit unit) {
+            _packer.targetLatencyMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param autoTune false to keep the byte budget fixed at its maximum
+         */
+        public Builder withAutoTune(boolean autoTune) {
+            _packer.autoTune = autoTune;
+            return this;
+        }
+
+        public EnvelopePacker build() {
+            if (_packer.sink == null ||
+                    StringUtils.isBlank(_packer.sensor) ||
+                    _packer.maxEvents <= 0 ||
+                    _packer.minBytes <= 0 ||
+                    _packer.maxBytes < _packer.minBytes ||
+                    _packer.targetLatencyMillis <= 0) {
+                throw new IllegalStateException();
+            }
+            if (_packer.objectMapper == null) {
+                _packer.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+            }
+            _packer.byteBudget = _packer.maxBytes;
+            return _packer;
+        }
+    }
+
+    /**
+     * Adds an event, first posting the pending envelope if the event would take it over the byte budget or event count.
+     * An event larger than the whole budget is sent in an envelope of its own.
+     *
+     * @throws RestClientException if posting the pending envelope fails, in which case the event is pending as well
+     */
+    public synchronized void add(Event event) {
+        long size = estimateSize(event);
+        boolean full = !pending.isEmpty() && (pendingBytes + size > byteBudget || pending.size() >= maxEvents);
+        pending.add(event);
+        pendingSizes.add(size);
+        pendingBytes += size;
+        if (full) {
+            post(1);
+        }
+    }
+
+    public void addAll(Collection<Event> events) {
+        for (Event event : events) {
+            add(event);
+        }
+    }
+
+    /**
+     * Posts the pending events, in as many envelopes as the byte budget and event count require.
+     *
+     * @throws RestClientException if a post fails, in which case the events not yet posted remain pending
+     */
+    public synchronized void flush() {
+        post(0);
+    }
+
+    /**
+     * Posts all but the last <code>keep</code> pending events.
+     */
+    private void post(int keep) {
+        while (pending.size() > keep) {
+            int count = 0;
+            long bytes = ENVELOPE_OVERHEAD_BYTES;
+            while (count < pending.size() - keep && count < maxEvents &&
+                    (count == 0 || bytes + pendingSizes.get(count) <= byteBudget)) {
+                bytes += pendingSizes.get(count);
+                count++;
+            }
+            List<Event> events = new ArrayList<>(pending.subList(0, count));
+
+            long start = System.nanoTime();
+            try {
+                sink.postEvents(events, sensor);
+            } catch (RestClientException e) {
+                if (autoTune) {
+                    byteBudget = Math.max(minBytes, byteBudget / 2);
+                }
+                throw e;
+            }
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            pending.subList(0, count).clear();
+            pendingSizes.subList(0, count).clear();
+            pendingBytes -= bytes - ENVELOPE_OVERHEAD_BYTES;
+            envelopesPosted++;
+            eventsPosted += count;
+            bytesPosted += bytes;
+            if (autoTune) {
+                tune(latencyMillis, bytes);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * @return the number of events added but not yet posted
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getByteBudget() {
+        return byteBudget;
+    }
+
+    public synchronized long getEnvelopesPosted() {
+        return envelopesPosted;
+    }
+
+    public synchronized long getEventsPosted() {
+        return eventsPosted;
+    }
+
+    public synchronized long getBytesPosted() {
+        return bytesPosted;
+    }
+
+    private void tune(long latencyMillis, long bytes) {
+        smoothedLatencyMillis = smoothedLatencyMillis < 0 ? latencyMillis
+                : LATENCY_SMOOTHING * latencyMillis + (1 - LATENCY_SMOOTHING) * smoothedLatencyMillis;
+        // Envelopes cut short by the event count or the end of the stream say little about a larger budget
+        if (bytes < byteBudget / 2 && smoothedLatencyMillis <= targetLatencyMillis) {
+            return;
+        }
+        double ratio = targetLatencyMillis / Math.max(1d, smoothedLatencyMillis);
+        ratio = Math.max(MAX_SHRINK, Math.min(MAX_GROWTH, ratio));
+        byteBudget = Math.max(minBytes, Math.min(maxBytes, (long) (byteBudget * ratio)));
+    }
+
+    private long estimateSize(Event event) {
+        counter.count = 0;
+        try {
+            objectMapper.writeValue(counter, event);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to serialize event " + event.getId(), e);
+        }
+        // One separating comma in the data array
+        return counter.count + 1;
+    }
+
+    /**
+     * Discards the serialized bytes, keeping only their count.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -35,7 +35,7 @@ import com.google.gson.JsonPrimitive;
  * @author ggilbert
  *
  */
-public class MatthewsClient {
+public class MatthewsClient implements DataSink {
 
   private RestTemplate restTemplate;
   private HttpHeaders httpHeaders;
@@ -0,0 +1,282 @@
+package unicon.matthews.dataloader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import unicon.matthews.dataloader.util.DaemonThreadFactory;
+
+/**
+ * Loads data for many institutions (tenants) over one shared <code>RestTemplate</code> and one shared pool of worker
+ * threads, instead of a <code>RestTemplate</code>, connections and threads per tenant.
+ *
+ * <p>Each tenant keeps its own {@link MatthewsClient}, and with it its own headers and bearer token; the client is
+ * built, and logs in, the first time the tenant is used. Work is submitted per tenant and dispatched to the workers by
+ * a weighted fair scheduler (start time fair queueing): every tenant with pending work gets a share of the workers in
+ * proportion to its weight, so one tenant's large backfill cannot starve other tenants' daily loads. Fairness is
+ * counted in tasks, not time: every task charges its tenant <code>1 / weight</code> however long it runs, so tenants
+ * should submit work in pieces of comparable size, such as one envelope of events per task.
+ * <pre>{@code
+ * MultiTenantClientPool pool = new MultiTenantClientPool.Builder()
+ *     .withTenant("school-a", keyA, secretA, "https://lrw.example.edu", 1)
+ *     .withTenant("school-b", keyB, secretB, "https://lrw.example.edu", 4)
+ *     .withWorkers(8)
+ *     .build();
+ * pool.submit("school-a", client -> client.postEvents(events, sensorName));
+ * }</pre>
+ * </p>
+ *
+ * <p>The default <code>RestTemplate</code> uses <code>HttpURLConnection</code>, whose keep-alive connections are pooled
+ * JVM wide per host (sized by the <code>http.maxConnections</code> system property), so all tenants sharing a base URL
+ * reuse the same connections. A <code>RestTemplate</code> with a different pooling request factory can be supplied.</p>
+ */
+public class MultiTenantClientPool implements AutoCloseable {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+    private RestTemplate restTemplate;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private final Map<String, Tenant> tenants = new LinkedHashMap<>();
+
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private double virtualTime;
+    private boolean closed;
+
+    private MultiTenantClientPool() {}
+
+    public static class Builder {
+        MultiTenantClientPool _pool = new MultiTenantClientPool();
+
+        public Builder withRestTemplate(RestTemplate restTemplate) {
+            _pool.restTemplate = restTemplate;
+            return this;
+        }
+
+        public Builder withWorkers(int workers) {
+            _pool.workers = workers;
+            return this;
+        }
+
+        /**
+         * @param weight the tenant's relative share of the workers when several tenants have work pending
+         */
+        public Builder withTenant(String tenantId, String key, String secret, String baseUrl, int weight) {
+            if (StringUtils.isBlank(tenantId) || weight <= 0 || _pool.tenants.containsKey(tenantId)) {
+                throw new IllegalArgumentException("Tenant id must be unique and weight positive");
+            }
+            _pool.tenants.put(tenantId, new Tenant(tenantId, key, secret, baseUrl, weight));
+            return this;
+        }
+
+        public MultiTenantClientPool build() {
+            if (_pool.tenants.isEmpty() || _pool.workers <= 0) {
+                throw new IllegalStateException();
+            }
+            if (_pool.restTemplate == null) {
+                SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+                requestFactory.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS);
+                requestFactory.setReadTimeout(DEFAULT_READ_TIMEOUT_MILLIS);
+                _pool.restTemplate = new RestTemplate(requestFactory);
+            }
+            DaemonThreadFactory threadFactory = new DaemonThreadFactory("tenant-worker");
+            for (int i = 0; i < _pool.workers; i++) {
+                Thread thread = threadFactory.newThread(_pool::work);
+                _pool.workerThreads.add(thread);
+                thread.start();
+            }
+            return _pool;
+        }
+    }
+
+    /**
+     * @return the tenant's client, logging in on first use
+     */
+    public MatthewsClient getClient(String tenantId) {
+        return tenant(tenantId).client(restTemplate);
+    }
+
+    /**
+     * Queues work for a tenant. Work for the same tenant starts in submission order.
+     *
+     * @return completes when the work has run, or exceptionally with the exception it threw
+     */
+    public CompletableFuture<Void> submit(String tenantId, Consumer<MatthewsClient> work) {
+        Tenant tenant = tenant(tenantId);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Pool is closed");
+            }
+            if (tenant.pending.isEmpty()) {
+                // A tenant returning from idle starts at the current virtual time rather than with banked credit
+                tenant.virtualStart = Math.max(tenant.virtualStart, virtualTime);
+            }
+            tenant.pending.add(new Task(work, future));
+            notify();
+        }
+        return future;
+    }
+
+    public Map<String, Integer> getPendingByTenant() {
+        Map<String, Integer> pending = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Tenant tenant : tenants.values()) {
+                pending.put(tenant.id, tenant.pending.size());
+            }
+        }
+        return Collections.unmodifiableMap(pending);
+    }
+
+    /**
+     * Stops accepting work and waits for the work already queued to finish.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Waits up to the timeout for the queued work to finish, then cancels the work which has not started and interrupts
+     * the workers still running.
+     */
+    public void close(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : workerThreads) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        synchronized (this) {
+            for (Tenant tenant : tenants.values()) {
+                Task task;
+                while ((task = tenant.pending.poll()) != null) {
+                    task.future.cancel(false);
+                }
+            }
+        }
+        for (Thread thread : workerThreads) {
+            if (thread.isAlive()) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private Tenant tenant(String tenantId) {
+        Tenant tenant = tenants.get(tenantId);
+        if (tenant == null) {
+            throw new IllegalArgumentException("Unknown tenant " + tenantId);
+        }
+        return tenant;
+    }
+
+    private void work() {
+        while (true) {
+            Tenant tenant;
+            Task task;
+            synchronized (this) {
+                while ((tenant = nextTenant()) == null) {
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                task = tenant.pending.poll();
+                virtualTime = tenant.virtualStart;
+                tenant.virtualStart += 1.0 / tenant.weight;
+            }
+            try {
+                task.work.accept(tenant.client(restTemplate));
+                task.future.complete(null);
+            } catch (Throwable e) {
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return the tenant with pending work and the earliest virtual start time, or null if no work is pending
+     */
+    private Tenant nextTenant() {
+        Tenant next = null;
+        for (Tenant tenant : tenants.values()) {
+            if (!tenant.pending.isEmpty() && (next == null || tenant.virtualStart < next.virtualStart)) {
+                next = tenant;
+            }
+        }
+        return next;
+    }
+
+    private static class Task {
+        final Consumer<MatthewsClient> work;
+        final CompletableFuture<Void> future;
+
+        Task(Consumer<MatthewsClient> work, CompletableFuture<Void> future) {
+            this.work = work;
+            this.future = future;
+        }
+    }
+
+    private static class Tenant {
+        final String id;
+        final String key;
+        final String secret;
+        final String baseUrl;
+        final int weight;
+        final Queue<Task> pending = new ArrayDeque<>();
+        double virtualStart;
+        private volatile MatthewsClient client;
+
+        Tenant(String id, String key, String secret, String baseUrl, int weight) {
+            this.id = id;
+            this.key = key;
+            this.secret = secret;
+            this.baseUrl = baseUrl;
+            this.weight = weight;
+        }
+
+        MatthewsClient client(RestTemplate restTemplate) {
+            MatthewsClient result = client;
+            if (result == null) {
+                synchronized (this) {
+                    result = client;
+                    if (result == null) {
+                        result = new MatthewsClient.Builder()
+                                .withRestTemplate(restTemplate)
+                                .withHttpHeaders(new HttpHeaders())
+                                .withBaseUrl(baseUrl)
+                                .withKey(key)
+                                .withSecret(secret)
+                                .build();
+                        client = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package unicon.matthews.dataloader;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPOutputStream;
+
+import org.apereo.model.entity.ClassMapping;
+import org.apereo.model.entity.DataSync;
+import org.apereo.model.entity.UserMapping;
+import org.apereo.model.oneroster.Enrollment;
+import org.apereo.model.oneroster.LineItem;
+import org.apereo.model.oneroster.User;
+import org.apereo.openlrw.caliper.Envelope;
+import org.apereo.openlrw.caliper.Event;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import unicon.matthews.dataloader.util.DaemonThreadFactory;
+
+/**
+ * {@link DataSink} which writes newline delimited JSON files for bulk import on the OpenLRW side instead of posting
+ * every entity over HTTP, intended for the initial historical backfill.
+ *
+ * <p>Each kind of entity goes to its own stream of files, e.g.
+ * <code>caliper-20161019120000-3f2a9c1e-00000.ndjson.gz</code> for event {@link Envelope}s and <code>users-...</code>
+ * for users, where the timestamp and random run id keep the files of different sinks apart. Entities are serialized on
+ * the calling thread, then handed to a single writer thread through a bounded queue. A file is written with a
+ * <code>.part</code> suffix and renamed once it reaches the rotation size (measured on the compressed output) or the
+ * sink is closed, so importers only ever see complete files.</p>
+ *
+ * <p>A failure on the writer thread is rethrown as an {@link UncheckedIOException} by the next post or by
+ * {@link #close()}, and the files still being written are deleted rather than completed. The sink has no record of
+ * OpenLRW's sync history, so {@link #getLatestDataSyncForType} always returns null and loaders perform a full load.</p>
+ */
+public class NdjsonFileSink implements DataSink, AutoCloseable {
+
+    public static final long DEFAULT_MAX_FILE_BYTES = 256 * 1024 * 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    static final String PART_SUFFIX = ".part";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte NEWLINE = '\n';
+    private static final DateTimeFormatter FILE_TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+    private static final Record END = new Record(null, null);
+
+    private Path directory;
+    private ObjectMapper objectMapper;
+    private long maxFileBytes = DEFAULT_MAX_FILE_BYTES;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private boolean compress = true;
+
+    private BlockingQueue<Record> queue;
+    private Thread writerThread;
+    private final Map<String, RotatingFile> files = new HashMap<>();
+    private final String runId = FILE_TIMESTAMP.format(Instant.now()) + "-"
+            + UUID.randomUUID().toString().substring(0, 8);
+    private volatile IOException failure;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    private NdjsonFileSink() {}
+
+    public static class Builder {
+        NdjsonFileSink _sink = new NdjsonFileSink();
+
+        public Builder withDirectory(Path directory) {
+            _sink.directory = directory;
+            return this;
+        }
+
+        /**
+         * Defaults to the mapper built by <code>Jackson2ObjectMapperBuilder</code>.
+         */
+        public Builder withObjectMapper(ObjectMapper objectMapper) {
+            _sink.objectMapper = objectMapper;
+            return this;
+        }
+
+        /**
+         * @param maxFileBytes the approximate size, after compression, at which a file is completed and a new one is
+         * started
+         */
+        public Builder withMaxFileBytes(long maxFileBytes) {
+            _sink.maxFileBytes = maxFileBytes;
+            return this;
+        }
+
+        /**
+         * @param queueCapacity the number of serialized entities buffered for the writer thread before posts block
+         */
+        public Builder withQueueCapacity(int queueCapacity) {
+            _sink.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param compress false to write plain <code>.ndjson</code> files
+         */
+        public Builder withCompression(boolean compress) {
+            _sink.compress = compress;
+            return this;
+        }
+
+        public NdjsonFileSink build() {
+            if (_sink.directory == null || _sink.maxFileBytes <= 0 || _sink.queueCapacity <= 0) {
+                throw new IllegalStateException();
+            }
+            try {
+                Files.createDirectories(_sink.directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (_sink.objectMapper == null) {
+                _sink.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+            }
+            _sink.queue = new ArrayBlockingQueue<>(_sink.queueCapacity);
+            _sink.writerThread = new DaemonThreadFactory("ndjson-file-sink").newThread(_sink::writeLoop);
+            _sink.writerThread.start();
+            return _sink;
+        }
+    }
+
+    public void postEnrollment(Enrollment enrollment) {
+        submit("enrollments", enrollment);
+    }
+
+    public void postUser(User user) {
+        submit("users", user);
+    }
+
+    public void postUserMapping(UserMapping userMapping) {
+        submit("user-mappings", userMapping);
+    }
+
+    public void postLineItem(LineItem lineItem) {
+        submit("lineitems", lineItem);
+    }
+
+    public void postClass(org.apereo.model.oneroster.Class klass) {
+        submit("classes", klass);
+    }
+
+    public void postCourse(org.apereo.model.oneroster.Course course) {
+        submit("courses", course);
+    }
+
+    public void postClassMapping(ClassMapping classMapping) {
+        submit("class-mappings", classMapping);
+    }
+
+    public void postEvent(Event event, String sensorName) {
+        postEvents(Collections.singletonList(event), sensorName);
+    }
+
+    public void postEvents(Collection<Event> events, String sensorName) {
+        Envelope envelope = new Envelope.Builder()
+                .withData(new ArrayList<>(events))
+                .withSendTime(Instant.now())
+                .withSensor(sensorName)
+                .build();
+
+        submit("caliper", envelope);
+    }
+
+    public void postDataSync(DataSync dataSync) {
+        submit("sync", dataSync);
+    }
+
+    public DataSync getLatestDataSyncForType(DataSync.DataSyncType dataSyncType) {
+        return null;
+    }
+
+    /**
+     * Waits for everything posted so far to be written, then completes all open files.
+     */
+    @Override
+    public void close() {
+        // Once closed is set under the write lock no post can queue a record behind END
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            queue.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while closing the file sink", e);
+        }
+        checkFailure();
+    }
+
+    private void submit(String stream, Object entity) {
+        if (closed) {
+            throw new IllegalStateException("File sink is closed");
+        }
+        checkFailure();
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(entity);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to serialize " + entity, e);
+        }
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("File sink is closed");
+            }
+            while (!queue.offer(new Record(stream, json), 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing " + stream, e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            Record record;
+            while ((record = queue.take()) != END) {
+                if (failure != null) {
+                    continue; // drain so posting threads do not block
+                }
+                try {
+                    RotatingFile file = files.get(record.stream);
+                    if (file == null) {
+                        file = new RotatingFile(record.stream);
+                        files.put(record.stream, file);
+                    }
+                    file.write(record.json);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new IOException("File sink writer interrupted", e);
+        } finally {
+            for (RotatingFile file : files.values()) {
+                try {
+                    if (failure == null) {
+                        file.complete();
+                    } else {
+                        file.abandon();
+                    }
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            files.clear();
+        }
+    }
+
+    private static class Record {
+        final String stream;
+        final byte[] json;
+
+        Record(String stream, byte[] json) {
+            this.stream = stream;
+            this.json = json;
+        }
+    }
+
+    private class RotatingFile {
+
+        private final String stream;
+        private int sequence;
+        private Path path;
+        private FileChannel channel;
+        private OutputStream out;
+
+        RotatingFile(String stream) {
+            this.stream = stream;
+        }
+
+        void write(byte[] json) throws IOException {
+            if (out == null) {
+                open();
+            }
+            out.write(json);
+            out.write(NEWLINE);
+            // The channel position trails the compressed size by at most the internal buffers
+            if (channel.position() >= maxFileBytes) {
+                complete();
+            }
+        }
+
+        void complete() throws IOException {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } finally {
+                out = null;
+                channel = null;
+            }
+            String name = path.getFileName().toString();
+            Files.move(path, path.resolveSibling(name.substring(0, name.length() - PART_SUFFIX.length())),
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Deletes the file being written, which may be missing entities after a failure.
+         */
+        void abandon() throws IOException {
+            if (out == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } finally {
+                out = null;
+                channel = null;
+                Files.deleteIfExists(path);
+            }
+        }
+
+        private void open() throws IOException {
+            String name = String.format("%s-%s-%05d.ndjson%s%s", stream, runId, sequence++,
+                    compress ? ".gz" : "", PART_SUFFIX);
+            path = directory.resolve(name);
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            OutputStream channelOut = Channels.newOutputStream(channel);
+            out = compress
+                    ? new BufferedOutputStream(new GZIPOutputStream(channelOut, BUFFER_SIZE), BUFFER_SIZE)
+                    : new BufferedOutputStream(channelOut, BUFFER_SIZE);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package unicon.matthews.dataloader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import unicon.matthews.dataloader.io.DumpFiles;
+import unicon.matthews.dataloader.io.FileOffsetStore;
+
+/**
+ * Continuous {@link DataLoader} which watches a drop directory and loads new dump parts or incremental files as soon as
+ * they have finished being written, instead of waiting for a complete dump.
+ *
+ * <p>A file is considered finished once its size and modification time have not changed for the quiet period. Files
+ * still being written under a temporary name (ending in <code>.part</code> or <code>.tmp</code>, or starting with a
+ * dot) are ignored until they are renamed. Ready files are read line by line, decompressing <code>.gz</code> files, and
+ * handed in batches to the {@link BatchHandler}, which converts the lines and posts them through a {@link DataSink}.
+ * After each batch is handled the line offset of the file is saved to a {@link FileOffsetStore}, so a restarted loader
+ * resumes where it stopped and never reloads a completed file. The directory is rescanned periodically, which also
+ * drops the offsets of files that have since been removed.</p>
+ *
+ * <pre>{@code
+ * WatchingDataLoader loader = new WatchingDataLoader.Builder()
+ *     .withDirectory(dropDirectory)
+ *     .withOffsetStore(new FileOffsetStore(stateDirectory.resolve("offsets.properties")))
+ *     .withBatchHandler((file, lines) -> matthewsClient.postEvents(convert(file, lines), sensorName))
+ *     .build();
+ * loader.run(); // blocks until close() is called from another thread
+ * }</pre>
+ */
+public class WatchingDataLoader implements DataLoader, Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 5000;
+
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+    private static final long RESCAN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Converts and loads a batch of lines read from one file. A batch is only recorded as processed once this returns
+     * normally; an exception stops the loader and the batch is handled again on the next run.
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+        void handle(Path file, List<String> lines) throws IOException;
+    }
+
+    private Path directory;
+    private FileOffsetStore offsetStore;
+    private BatchHandler batchHandler;
+    private PathMatcher fileMatcher = path -> true;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long quietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+
+    private final Map<Path, FileState> candidates = new TreeMap<>();
+    private volatile WatchService watchService;
+    private long lastScanMillis;
+    private volatile boolean closed;
+
+    private WatchingDataLoader() {}
+
+    public static class Builder {
+        WatchingDataLoader _loader = new WatchingDataLoader();
+
+        public Builder withDirectory(Path directory) {
+            _loader.directory = directory;
+            return this;
+        }
+
+        public Builder withOffsetStore(FileOffsetStore offsetStore) {
+            _loader.offsetStore = offsetStore;
+            return this;
+        }
+
+        public Builder withBatchHandler(BatchHandler batchHandler) {
+            _loader.batchHandler = batchHandler;
+            return this;
+        }
+
+        /**
+         * @param glob only files whose name matches the glob, e.g. <code>*.gz</code>, are loaded
+         */
+        public Builder withFileGlob(String glob) {
+            _loader.fileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            return this;
+        }
+
+        public Builder withBatchSize(int batchSize) {
+            _loader.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder withQuietPeriod(long duration, TimeUnit unit) {
+            _loader.quietPeriodMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public WatchingDataLoader build() {
+            if (_loader.directory == null ||
+                    _loader.offsetStore == null ||
+                    _loader.batchHandler == null ||
+                    _loader.batchSize <= 0 ||
+                    _loader.quietPeriodMillis < 0) {
+                throw new IllegalStateException();
+            }
+            return _loader;
+        }
+    }
+
+    /**
+     * Watches the directory and loads files until {@link #close()} is called. Returns immediately if the loader has
+     * already been closed.
+     *
+     * @throws UncheckedIOException if the directory cannot be watched, or a file cannot be read or handled
+     */
+    @Override
+    public void run() {
+        if (closed) {
+            return;
+        }
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            // A close() which ran before the watch service was assigned could not close it
+            if (closed) {
+                return;
+            }
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            scanDirectory();
+            while (!closed) {
+                WatchKey key = watchService.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handleEvents(key);
+                }
+                if (System.currentTimeMillis() - lastScanMillis >= RESCAN_INTERVAL_MILLIS) {
+                    scanDirectory();
+                }
+                loadReadyFiles();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed to stop the loader
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            closeWatchService();
+        }
+    }
+
+    /**
+     * Stops a running loader once the batch in progress, if any, has been handled, or prevents a loader which has not
+     * started yet from running.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        WatchService current = watchService;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void closeWatchService() {
+        WatchService current = watchService;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // the loader is stopping either way
+            }
+        }
+    }
+
+    private void handleEvents(WatchKey key) throws IOException {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else {
+                consider(directory.resolve((Path) event.context()));
+            }
+        }
+        key.reset();
+        if (overflow) {
+            scanDirectory();
+        }
+    }
+
+    /**
+     * Considers every file in the directory, catching any whose events were missed, and drops the offsets of files
+     * which are gone.
+     */
+    private void scanDirectory() throws IOException {
+        Set<String> present = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    present.add(FileOffsetStore.keyOf(file));
+                }
+                consider(file);
+            }
+        }
+        offsetStore.retainOnly(present);
+        lastScanMillis = System.currentTimeMillis();
+    }
+
+    private void consider(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") || name.endsWith(".part") || name.endsWith(".tmp") ||
+                !fileMatcher.matches(file.getFileName()) || !Files.isRegularFile(file) ||
+                offsetStore.isComplete(FileOffsetStore.keyOf(file))) {
+            return;
+        }
+        FileState state = candidates.get(file);
+        if (state == null) {
+            state = new FileState();
+            candidates.put(file, state);
+        }
+        state.observe(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+
+    private void loadReadyFiles() throws IOException {
+        long now = System.currentTimeMillis();
+        List<Path> ready = new ArrayList<>();
+        for (Iterator<Map.Entry<Path, FileState>> entries = candidates.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<Path, FileState> entry = entries.next();
+            Path file = entry.getKey();
+            if (!Files.exists(file)) {
+                entries.remove();
+                continue;
+            }
+            // Modification events are not guaranteed for every write, so re-check the file itself
+            entry.getValue().observe(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+            if (now - entry.getValue().lastChangeMillis >= quietPeriodMillis) {
+                ready.add(file);
+                entries.remove();
+            }
+        }
+        for (Path file : ready) {
+            if (closed) {
+                return;
+            }
+            load(file);
+        }
+    }
+
+    private void load(Path file) throws IOException {
+        String key = FileOffsetStore.keyOf(file);
+        long offset = offsetStore.getOffset(key);
+        long lineNumber = 0;
+        List<String> batch = new ArrayList<>(batchSize);
+        try (BufferedReader reader = DumpFiles.newReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (lineNumber++ < offset) {
+                    continue;
+                }
+                batch.add(line);
+                if (batch.size() == batchSize) {
+                    batchHandler.handle(file, batch);
+                    offsetStore.setOffset(key, lineNumber);
+                    batch = new ArrayList<>(batchSize);
+                    if (closed) {
+                        return;
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchHandler.handle(file, batch);
+        }
+        offsetStore.markComplete(key);
+    }
+
+    private static class FileState {
+        long size = -1;
+        long modifiedMillis = -1;
+        long lastChangeMillis;
+
+        void observe(long size, long modifiedMillis) {
+            if (size != this.size || modifiedMillis != this.modifiedMillis) {
+                this.size = size;
+                this.modifiedMillis = modifiedMillis;
+                this.lastChangeMillis = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package unicon.matthews.dataloader.converter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import unicon.matthews.dataloader.util.DaemonThreadFactory;
+
+/**
+ * Optional instrumentation recording per converter call counts, wall time and bytes allocated, to find which
+ * {@link Converter} or {@link EventBuilderUtils} builder is responsible for a slow load without attaching a profiler.
+ *
+ * <p>Wrap converters with {@link #profile(String, Converter)}, and time any other section, such as a builder, with
+ * {@link #record(String, Supplier)}. Allocation is measured with the per thread allocated bytes counter of the HotSpot
+ * <code>ThreadMXBean</code>; where the JVM does not support it only counts and wall time are recorded.
+ * <pre>{@code
+ * ConverterProfiler profiler = new ConverterProfiler();
+ * Converter<Request, Event> converter = profiler.profile("requests", new RequestConverter());
+ * profiler.startPeriodicSummary(1, TimeUnit.MINUTES, summary -> logger.info(summary));
+ * ...
+ * List<ConverterProfiler.Stats> snapshot = profiler.snapshot();
+ * }</pre>
+ * </p>
+ */
+public class ConverterProfiler implements AutoCloseable {
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = allocationBean();
+
+    private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+    private ScheduledExecutorService summaryExecutor;
+
+    /**
+     * Recorded totals for one named section. <code>supports</code> calls are recorded separately under the converter
+     * name suffixed with <code>#supports</code>.
+     */
+    public static class Stats {
+        private final String name;
+        private final long calls;
+        private final long wallNanos;
+        private final long allocatedBytes;
+
+        Stats(String name, long calls, long wallNanos, long allocatedBytes) {
+            this.name = name;
+            this.calls = calls;
+            this.wallNanos = wallNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * @return bytes allocated on the calling threads, or -1 if allocation measurement is unavailable
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            double wallMillis = wallNanos / 1e6;
+            return String.format("%s: calls=%d, wall=%.1fms (%.3fms/call), allocated=%s", name, calls, wallMillis,
+                    calls == 0 ? 0 : wallMillis / calls,
+                    allocatedBytes < 0 ? "n/a" : allocatedBytes + "B (" + (calls == 0 ? 0 : allocatedBytes / calls) + "B/call)");
+        }
+    }
+
+    /**
+     * @return a converter recording each <code>supports</code> and <code>convert</code> call under the given name
+     */
+    public <S, T> Converter<S, T> profile(String name, Converter<S, T> converter) {
+        String supportsName = name + "#supports";
+        return new Converter<S, T>() {
+            @Override
+            public boolean supports(S source) {
+                return record(supportsName, () -> converter.supports(source));
+            }
+
+            @Override
+            public T convert(S source, SupportingEntities supportingEntities) {
+                return record(name, () -> converter.convert(source, supportingEntities));
+            }
+        };
+    }
+
+    /**
+     * Runs and records a section of work under the given name. Sections may be nested, e.g. a builder within a
+     * converter, in which case the outer section's totals include the inner one's.
+     */
+    public <R> R record(String name, Supplier<R> work) {
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocatedBytes(threadId);
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            long wallNanos = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes(threadId);
+            Counters section = counters.computeIfAbsent(name, key -> new Counters());
+            section.calls.increment();
+            section.wallNanos.add(wallNanos);
+            if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                section.allocatedBytes.add(allocatedAfter - allocatedBefore);
+            }
+        }
+    }
+
+    /**
+     * @return the totals recorded so far, slowest section first
+     */
+    public List<Stats> snapshot() {
+        boolean allocationMeasured = isAllocationMeasured();
+        List<Stats> stats = new ArrayList<>();
+        counters.forEach((name, section) -> stats.add(new Stats(name, section.calls.sum(), section.wallNanos.sum(),
+                allocationMeasured ? section.allocatedBytes.sum() : -1)));
+        stats.sort((a, b) -> Long.compare(b.wallNanos, a.wallNanos));
+        return Collections.unmodifiableList(stats);
+    }
+
+    /**
+     * @return a multi-line, human readable summary of {@link #snapshot()}
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder("Converter profile");
+        for (Stats stats : snapshot()) {
+            summary.append(System.lineSeparator()).append("  ").append(stats);
+        }
+        return summary.toString();
+    }
+
+    public void reset() {
+        counters.clear();
+    }
+
+    /**
+     * Emits the {@link #summary()} to the consumer at a fixed rate until {@link #close()} is called.
+     */
+    public synchronized void startPeriodicSummary(long period, TimeUnit unit, Consumer<String> consumer) {
+        if (summaryExecutor != null) {
+            throw new IllegalStateException("Periodic summary already started");
+        }
+        summaryExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("converter-profiler"));
+        summaryExecutor.scheduleAtFixedRate(() -> consumer.accept(summary()), period, period, unit);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (summaryExecutor != null) {
+            summaryExecutor.shutdownNow();
+            summaryExecutor = null;
+        }
+    }
+
+    public static boolean isAllocationMeasured() {
+        return ALLOCATION_BEAN != null;
+    }
+
+    private static long allocatedBytes(long threadId) {
+        return ALLOCATION_BEAN == null ? -1 : ALLOCATION_BEAN.getThreadAllocatedBytes(threadId);
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        try {
+            if (!allocationBean.isThreadAllocatedMemorySupported()) {
+                return null;
+            }
+            if (!allocationBean.isThreadAllocatedMemoryEnabled()) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            }
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return null;
+        }
+        return allocationBean;
+    }
+
+    private static class Counters {
+        final LongAdder calls = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+    }
+}
@@ -6,11 +6,11 @@ import org.apereo.openlrw.caliper.Event;
 import org.apereo.openlrw.caliper.Group;
 import org.apereo.openlrw.caliper.Membership;
 import unicon.matthews.dataloader.util.Maps;
+import unicon.matthews.dataloader.util.StringDictionary;
 import org.apereo.model.oneroster.Enrollment;
 import org.apereo.model.oneroster.User;
 
 import java.util.Arrays;
-import java.util.UUID;
 
 import static unicon.matthews.dataloader.util.Maps.entry;
 
@@ -239,7 +239,7 @@ public class EventBuilderUtils {
                 .withExtensions(Maps.ofEntries(
                         entry("real_user_id", realUserId),
                         entry("user_login", userLogin),
-                        entry("root_account_id", rootAccountId),
+                        entry("root_account_id", intern(rootAccountId)),
                         entry("root_account_lti_guid", "TBD - Where is this?")));  // TODO - Find this data or omit
     }
 
@@ -260,7 +260,7 @@ public class EventBuilderUtils {
     public static Group.Builder usingCourseSectionGroup(Enrollment enrollment) {
         return new Group.Builder()
                 .withType(CaliperV1p1Vocab.Entity.COURSE_SECTION)
-                .withId(enrollment.getKlass().getSourcedId())
+                .withId(intern(enrollment.getKlass().getSourcedId()))
                 .withExtensions(Maps.ofEntries(
                         entry("context_type", enrollment.getKlass().getType())));  // TODO - optional and course title is likely wrong - but where do we find something else useful for it
     }
@@ -270,13 +270,28 @@ public class EventBuilderUtils {
                 .withId(enrollment.getSourcedId())
                 .withType(CaliperV1p1Vocab.Entity.MEMBERSHIP)
                 .withMember(enrollment.getUser().getSourcedId())              // TODO Redundant - This was intended for a member enrollment ID (if one exists) - perhaps we omit?
-                .withOrganization(enrollment.getKlass().getSourcedId())    // CourseSection
+                .withOrganization(intern(enrollment.getKlass().getSourcedId()))    // CourseSection
                 .withRoles(Arrays.asList(enrollment.getRole().name()));
     }
 
+    /**
+     * Assigns a random id. Events converted from a source row should use
+     * {@link #usingBaseEvent(String, String, String...)} instead, so replaying a load is idempotent.
+     */
     public static Event.Builder usingBaseEvent() {
+        return baseEvent(EventIds.random());
+    }
+
+    /**
+     * Assigns a stable id derived from the source row, see {@link EventIds#forSourceRow(String, String, String...)}.
+     */
+    public static Event.Builder usingBaseEvent(String table, String primaryKey, String... qualifiers) {
+        return baseEvent(EventIds.forSourceRow(table, primaryKey, qualifiers));
+    }
+
+    private static Event.Builder baseEvent(String id) {
         return new Event.Builder()
-                .withId(UUID.randomUUID().toString())
+                .withId(id)
                 .withContext(CaliperV1p1Vocab.CONTEXT)
                 .withEdApp(usingCanvasApplication().build());
     }
@@ -326,4 +341,12 @@ public class EventBuilderUtils {
               .withAction(CaliperV1p1Vocab.Action.SUBMITTED);
   }
 
+    /**
+     * Account and course section ids repeat across a large number of events, so share a single instance of each
+     * through the default {@link StringDictionary}. Per user and per row ids are left alone.
+     */
+    private static String intern(String value) {
+        return StringDictionary.getDefault().intern(value);
+    }
+
 }
@@ -0,0 +1,84 @@
+package unicon.matthews.dataloader.converter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Strategies for assigning Caliper event ids.
+ *
+ * <p>Events converted from a row of a Canvas data dump should use {@link #forSourceRow(String, String, String...)}, a
+ * name based (RFC 4122 version 3) UUID derived from the table name and the primary key of the row. The same row always
+ * produces the same event id, so re-running a load after a partial failure re-sends the same events rather than
+ * creating duplicates in OpenLRW:
+ * <pre>{@code
+ * Event event = EventBuilderUtils.usingBaseEvent("requests", request.getId())
+ *         .withType(CaliperV1p1Vocab.Event.NAVIGATION_EVENT)
+ *         ...
+ *         .build();
+ * }</pre>
+ * </p>
+ *
+ * <p>{@link #random()} is used where no source row exists.</p>
+ */
+public class EventIds {
+
+    // Namespace for the name based ids, so they cannot collide with name based UUIDs generated by other systems
+    private static final UUID NAMESPACE = UUID.fromString("6f1c7a3e-2b0d-4c55-9a8e-3d47c1e0b912");
+
+    private static final byte SEPARATOR = 0;
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not supported", e);
+        }
+    });
+
+    private EventIds() {}
+
+    /**
+     * Derives a stable event id for a row of a source table.
+     *
+     * @param table the source table, e.g. <code>requests</code>
+     * @param primaryKey the primary key of the row within the table
+     * @param qualifiers distinguishes several events converted from the same row, e.g. a login and a logout
+     * @return the event id
+     */
+    public static String forSourceRow(String table, String primaryKey, String... qualifiers) {
+        if (table == null || primaryKey == null) {
+            throw new IllegalArgumentException("table and primaryKey are required");
+        }
+        MessageDigest digest = MD5.get();
+        digest.reset();
+        digest.update(ByteBuffer.allocate(16)
+                .putLong(NAMESPACE.getMostSignificantBits())
+                .putLong(NAMESPACE.getLeastSignificantBits())
+                .array());
+        digest.update(table.getBytes(StandardCharsets.UTF_8));
+        digest.update(SEPARATOR);
+        digest.update(primaryKey.getBytes(StandardCharsets.UTF_8));
+        for (String qualifier : qualifiers) {
+            if (qualifier == null) {
+                throw new IllegalArgumentException("qualifiers must not be null");
+            }
+            digest.update(SEPARATOR);
+            digest.update(qualifier.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] hash = digest.digest();
+        hash[6] = (byte) ((hash[6] & 0x0f) | 0x30);  // version 3
+        hash[8] = (byte) ((hash[8] & 0x3f) | 0x80);  // IETF variant
+        ByteBuffer bits = ByteBuffer.wrap(hash);
+        return new UUID(bits.getLong(), bits.getLong()).toString();
+    }
+
+    /**
+     * @return a random (version 4) event id
+     */
+    public static String random() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,36 @@
+package unicon.matthews.dataloader.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Helpers for opening the files of a Canvas data dump.
+ */
+public class DumpFiles {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DumpFiles() {}
+
+    /**
+     * Opens a dump file for reading line by line, decompressing it if the name ends in <code>.gz</code>.
+     */
+    public static BufferedReader newReader(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        try {
+            if (file.getFileName().toString().endsWith(".gz")) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,431 @@
+package unicon.matthews.dataloader.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apereo.openlrw.caliper.Event;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Sorts an arbitrarily large stream of records by a <code>long</code> sort key with a fixed amount of heap. Records are
+ * sorted in memory in runs of at most {@link Builder#withMaxRecordsInMemory(int) maxRecordsInMemory}, each full run is
+ * spilled to a deflated temporary file, and the runs are streamed back through a k-way merge.
+ *
+ * <p>The sort is stable: records with equal keys are returned in the order they were added. Typical use is sorting the
+ * events of a table which is not ordered by time before posting them:
+ * <pre>{@code
+ * try (ExternalSorter<Event> sorter = ExternalSorter.forEvents().withMaxRecordsInMemory(100_000).build()) {
+ *     for (...) {
+ *         sorter.add(event);
+ *     }
+ *     sorter.drainTo(500, batch -> matthewsClient.postEvents(batch, sensorName));
+ * }
+ * }</pre>
+ * </p>
+ *
+ * <p>Instances are not thread safe. Temporary files are removed on {@link #close()}.</p>
+ */
+public class ExternalSorter<T> implements Closeable {
+
+    public static final int DEFAULT_MAX_RECORDS_IN_MEMORY = 100_000;
+    public static final int DEFAULT_MERGE_FAN_IN = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ToLongFunction<? super T> sortKey;
+    private RecordCodec<T> codec;
+    private int maxRecordsInMemory = DEFAULT_MAX_RECORDS_IN_MEMORY;
+    private int mergeFanIn = DEFAULT_MERGE_FAN_IN;
+    private Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+    private Comparator<T> comparator;
+    private List<T> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final List<RunCursor> openCursors = new ArrayList<>();
+    private long size;
+    private boolean sorting;
+
+    private ExternalSorter() {}
+
+    public static class Builder<T> {
+        ExternalSorter<T> _sorter = new ExternalSorter<>();
+
+        public Builder<T> withSortKey(ToLongFunction<? super T> sortKey) {
+            _sorter.sortKey = sortKey;
+            return this;
+        }
+
+        public Builder<T> withCodec(RecordCodec<T> codec) {
+            _sorter.codec = codec;
+            return this;
+        }
+
+        /**
+         * @param maxRecordsInMemory the number of records sorted in memory before a run is spilled to disk
+         */
+        public Builder<T> withMaxRecordsInMemory(int maxRecordsInMemory) {
+            _sorter.maxRecordsInMemory = maxRecordsInMemory;
+            return this;
+        }
+
+        /**
+         * @param mergeFanIn the maximum number of run files merged (and so held open) at once
+         */
+        public Builder<T> withMergeFanIn(int mergeFanIn) {
+            _sorter.mergeFanIn = mergeFanIn;
+            return this;
+        }
+
+        public Builder<T> withTempDirectory(Path tempDirectory) {
+            _sorter.tempDirectory = tempDirectory;
+            return this;
+        }
+
+        public ExternalSorter<T> build() {
+            if (_sorter.sortKey == null || _sorter.codec == null || _sorter.tempDirectory == null ||
+                    _sorter.maxRecordsInMemory <= 0 || _sorter.mergeFanIn < 2) {
+                throw new IllegalStateException();
+            }
+            _sorter.comparator = Comparator.comparingLong(_sorter.sortKey);
+            return _sorter;
+        }
+    }
+
+    /**
+     * @return a builder pre-configured to sort Caliper events by event time, spilling them as JSON. Events without an
+     * event time sort first.
+     */
+    public static Builder<Event> forEvents() {
+        return new Builder<Event>()
+                .withSortKey(ExternalSorter::eventTimeKey)
+                .withCodec(new JacksonRecordCodec<>(Jackson2ObjectMapperBuilder.json().build(), Event.class));
+    }
+
+    private static long eventTimeKey(Event event) {
+        Instant eventTime = event.getEventTime();
+        return eventTime == null ? Long.MIN_VALUE : eventTime.toEpochMilli();
+    }
+
+    public void add(T record) throws IOException {
+        if (sorting) {
+            throw new IllegalStateException("Records cannot be added once sorting has started");
+        }
+        buffer.add(record);
+        size++;
+        if (buffer.size() >= maxRecordsInMemory) {
+            runs.add(spill(buffer));
+            buffer = new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return the number of records added
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of runs spilled to disk so far
+     */
+    public int getSpilledRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the records in sort key order. Can only be called once.
+     */
+    public Iterator<T> sorted() throws IOException {
+        if (sorting) {
+            throw new IllegalStateException("Already sorted");
+        }
+        sorting = true;
+        buffer.sort(comparator);
+        while (runs.size() + 1 > mergeFanIn) {
+            mergePass();
+        }
+
+        List<RunCursor> cursors = new ArrayList<>();
+        for (Path run : runs) {
+            cursors.add(new FileRunCursor(cursors.size(), run));
+        }
+        cursors.add(new MemoryRunCursor(cursors.size(), buffer));
+        openCursors.addAll(cursors);
+        return new MergeIterator(cursors);
+    }
+
+    /**
+     * Streams the sorted records to the consumer in batches, e.g. straight into
+     * {@link unicon.matthews.dataloader.MatthewsClient#postEvents}.
+     */
+    public void drainTo(int batchSize, Consumer<List<T>> batchConsumer) throws IOException {
+        Iterator<T> iterator = sorted();
+        List<T> batch = new ArrayList<>(batchSize);
+        try {
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == batchSize) {
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(batch);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RunCursor cursor : openCursors) {
+            cursor.close();
+        }
+        openCursors.clear();
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        buffer = new ArrayList<>();
+    }
+
+    private Path spill(List<T> records) throws IOException {
+        records.sort(comparator);
+        Path run = Files.createTempFile(tempDirectory, "sort-run-", ".tmp");
+        boolean written = false;
+        try (DataOutputStream out = openRun(run)) {
+            for (T record : records) {
+                writeRecord(out, sortKey.applyAsLong(record), codec.encode(record));
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                Files.deleteIfExists(run);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges every group of consecutive runs into a single run, in place, cutting the number of runs by the fan in.
+     * Each pass reads and writes every record once, so reaching the final merge takes log<sub>fanIn</sub>(runs) passes,
+     * and keeping the groups in order keeps the sort stable.
+     */
+    private void mergePass() throws IOException {
+        for (int group = 0; group < runs.size(); group++) {
+            List<Path> merging = runs.subList(group, Math.min(group + mergeFanIn, runs.size()));
+            if (merging.size() == 1) {
+                break;
+            }
+            Path merged = mergeRuns(new ArrayList<>(merging));
+            merging.clear();
+            runs.add(group, merged);
+        }
+    }
+
+    /**
+     * Merges the runs into a new run, copying the encoded records without decoding them, and deletes the merged runs.
+     */
+    private Path mergeRuns(List<Path> merging) throws IOException {
+        Path merged = Files.createTempFile(tempDirectory, "sort-run-", ".tmp");
+        List<FileRunCursor> cursors = new ArrayList<>();
+        boolean written = false;
+        try {
+            PriorityQueue<FileRunCursor> queue = new PriorityQueue<>(RunCursor.ORDER);
+            for (Path run : merging) {
+                FileRunCursor cursor = new FileRunCursor(cursors.size(), run);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            try (DataOutputStream out = openRun(merged)) {
+                while (!queue.isEmpty()) {
+                    FileRunCursor cursor = queue.poll();
+                    writeRecord(out, cursor.key, cursor.bytes);
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+            }
+            written = true;
+        } finally {
+            for (FileRunCursor cursor : cursors) {
+                cursor.close();
+            }
+            if (!written) {
+                Files.deleteIfExists(merged);
+            }
+        }
+        for (Path run : merging) {
+            Files.deleteIfExists(run);
+        }
+        return merged;
+    }
+
+    private static DataOutputStream openRun(Path run) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        DeflaterOutputStream deflaterOut = new DeflaterOutputStream(Files.newOutputStream(run), deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+        return new DataOutputStream(new BufferedOutputStream(deflaterOut, BUFFER_SIZE));
+    }
+
+    private static void writeRecord(DataOutputStream out, long key, byte[] bytes) throws IOException {
+        out.writeLong(key);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private class MergeIterator implements Iterator<T> {
+
+        private final PriorityQueue<RunCursor> queue = new PriorityQueue<>(RunCursor.ORDER);
+
+        MergeIterator(List<RunCursor> cursors) throws IOException {
+            for (RunCursor cursor : cursors) {
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (queue.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            RunCursor cursor = queue.poll();
+            try {
+                T record = (T) cursor.current();
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+                return record;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * A sorted run positioned on its current record. Runs are ordered by the current key and then by their sequence,
+     * runs spilled earlier having a lower sequence, which keeps the merge stable.
+     */
+    private abstract static class RunCursor implements Closeable {
+
+        static final Comparator<RunCursor> ORDER =
+                Comparator.<RunCursor>comparingLong(cursor -> cursor.key).thenComparingInt(cursor -> cursor.sequence);
+
+        final int sequence;
+        long key;
+
+        RunCursor(int sequence) {
+            this.sequence = sequence;
+        }
+
+        abstract boolean advance() throws IOException;
+
+        abstract Object current() throws IOException;
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private class MemoryRunCursor extends RunCursor {
+
+        private final Iterator<T> records;
+        private T record;
+
+        MemoryRunCursor(int sequence, List<T> records) {
+            super(sequence);
+            this.records = records.iterator();
+        }
+
+        @Override
+        boolean advance() {
+            if (!records.hasNext()) {
+                return false;
+            }
+            record = records.next();
+            key = sortKey.applyAsLong(record);
+            return true;
+        }
+
+        @Override
+        Object current() {
+            return record;
+        }
+    }
+
+    private class FileRunCursor extends RunCursor {
+
+        private final DataInputStream in;
+        private byte[] bytes;
+
+        FileRunCursor(int sequence, Path run) throws IOException {
+            super(sequence);
+            this.in = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE)),
+                    BUFFER_SIZE));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+            bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return true;
+        }
+
+        @Override
+        Object current() throws IOException {
+            return codec.decode(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package unicon.matthews.dataloader.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Durable record of how far each input file has been processed, kept as a properties file of file key to the number
+ * of lines already handled. Every update is written to a temporary file and atomically moved over the previous state,
+ * so a crash leaves either the old or the new offsets and never a torn file.
+ *
+ * <p>Files are identified by {@link #keyOf(Path)}, which combines the name with the size and modification time, so a
+ * new file dropped under the name of one already loaded is loaded again rather than skipped. Entries for files which
+ * no longer exist are dropped with {@link #retainOnly(Set)}, keeping the store, and the cost of rewriting it, in
+ * proportion to the files currently present.</p>
+ *
+ * <p>Offsets count lines rather than bytes because gzipped dump parts cannot be positioned by byte; resuming skips the
+ * lines already handled.</p>
+ */
+public class FileOffsetStore {
+
+    public static final long COMPLETE = -1;
+
+    private final Path storeFile;
+    private final Properties offsets = new Properties();
+
+    public FileOffsetStore(Path storeFile) throws IOException {
+        this.storeFile = storeFile;
+        if (Files.exists(storeFile)) {
+            try (Reader reader = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+                offsets.load(reader);
+            }
+        }
+    }
+
+    /**
+     * @return the key identifying the current contents of the file: its name, size and modification time
+     */
+    public static String keyOf(Path file) throws IOException {
+        return file.getFileName() + "/" + Files.size(file) + "/" + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * @return the number of lines of the file already processed, 0 for an unknown file, or {@link #COMPLETE}
+     */
+    public synchronized long getOffset(String fileKey) {
+        String offset = offsets.getProperty(fileKey);
+        return offset == null ? 0 : Long.parseLong(offset);
+    }
+
+    public synchronized boolean isComplete(String fileKey) {
+        return getOffset(fileKey) == COMPLETE;
+    }
+
+    public synchronized void setOffset(String fileKey, long offset) throws IOException {
+        offsets.setProperty(fileKey, Long.toString(offset));
+        save();
+    }
+
+    public synchronized void markComplete(String fileKey) throws IOException {
+        setOffset(fileKey, COMPLETE);
+    }
+
+    /**
+     * Drops the entries of all files except the given ones, e.g. those still present in the watched directory.
+     */
+    public synchronized void retainOnly(Set<String> fileKeys) throws IOException {
+        if (offsets.keySet().retainAll(fileKeys)) {
+            save();
+        }
+    }
+
+    private void save() throws IOException {
+        Path temp = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            offsets.store(writer, "Processed line offsets per input file");
+        }
+        Files.move(temp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
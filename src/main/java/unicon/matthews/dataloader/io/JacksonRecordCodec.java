@@ -0,0 +1,34 @@
+package unicon.matthews.dataloader.io;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+
+/**
+ * {@link RecordCodec} backed by a Jackson <code>ObjectMapper</code>. Use the same mapper configuration used to send the
+ * records to OpenLRW, so that a record survives the round trip through a temporary file unchanged.
+ *
+ * @param <T> the record type
+ */
+public class JacksonRecordCodec<T> implements RecordCodec<T> {
+
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+
+    public JacksonRecordCodec(ObjectMapper objectMapper, Class<T> type) {
+        this.writer = objectMapper.writerFor(type);
+        this.reader = objectMapper.readerFor(type);
+    }
+
+    @Override
+    public byte[] encode(T record) throws IOException {
+        return writer.writeValueAsBytes(record);
+    }
+
+    @Override
+    public T decode(byte[] bytes) throws IOException {
+        return reader.readValue(bytes);
+    }
+}
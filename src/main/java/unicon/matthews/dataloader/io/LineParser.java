@@ -0,0 +1,19 @@
+package unicon.matthews.dataloader.io;
+
+import java.io.IOException;
+
+/**
+ * Parses a single line (typically one tab separated row) of a Canvas data dump part into a record.
+ *
+ * @param <T> the record type
+ */
+@FunctionalInterface
+public interface LineParser<T> {
+
+    /**
+     * @param line the line, without its line terminator
+     * @return the parsed record, or null to skip the line
+     */
+    T parse(String line) throws IOException;
+
+}
@@ -0,0 +1,380 @@
+package unicon.matthews.dataloader.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import unicon.matthews.dataloader.util.DaemonThreadFactory;
+
+/**
+ * Reads the many (optionally gzipped) parts Canvas Data ships for a single table, decompressing and parsing the parts
+ * in parallel on a bounded pool of threads.
+ *
+ * <p>Without an ordering records are returned in whatever order the parts produce them. With an
+ * {@link Builder#withOrdering(Comparator) ordering} each part is expected to be sorted already and the parts are
+ * combined with a k-way merge, so for example Caliper events still reach
+ * {@link unicon.matthews.dataloader.MatthewsClient#postEvents} in event time order:
+ * <pre>{@code
+ * try (ParallelPartReader<Event> reader = new ParallelPartReader.Builder<Event>()
+ *         .withParts(parts)
+ *         .withParser(line -> converter.convert(parseRow(line), supportingEntities))
+ *         .withOrdering(Comparator.comparing(Event::getEventTime))
+ *         .build()) {
+ *     reader.forEachRemaining(...);
+ * }
+ * }</pre>
+ * </p>
+ *
+ * <p>Memory is bounded by the per part read ahead limit: no more than {@link Builder#withReadAhead(int) readAhead}
+ * parsed records are buffered for each part. Parse or I/O failures are rethrown from {@link #hasNext()} or
+ * {@link #next()} as an {@link UncheckedIOException}. Closing the reader from another thread makes a consumer waiting
+ * for the next record fail with an {@link IllegalStateException}.</p>
+ */
+public class ParallelPartReader<T> implements Iterator<T>, Closeable {
+
+    public static final int DEFAULT_READ_AHEAD = 1024;
+
+    private static final Object END = new Object();
+
+    private List<Path> parts;
+    private LineParser<T> parser;
+    private Comparator<? super T> ordering;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int readAhead = DEFAULT_READ_AHEAD;
+    private ExecutorService executorService;
+    private boolean ownsExecutorService;
+
+    private volatile boolean closed;
+    private Iterator<T> delegate;
+    private final List<PartCursor> cursors = new ArrayList<>();
+
+    private ParallelPartReader() {}
+
+    public static class Builder<T> {
+        ParallelPartReader<T> _reader = new ParallelPartReader<>();
+
+        public Builder<T> withParts(List<Path> parts) {
+            _reader.parts = new ArrayList<>(parts);
+            return this;
+        }
+
+        public Builder<T> withParser(LineParser<T> parser) {
+            _reader.parser = parser;
+            return this;
+        }
+
+        /**
+         * Merge the parts by the given ordering. Each part must already be sorted by the same ordering.
+         */
+        public Builder<T> withOrdering(Comparator<? super T> ordering) {
+            _reader.ordering = ordering;
+            return this;
+        }
+
+        /**
+         * @param parallelism the number of parts decompressed at the same time, ignored if an executor is provided
+         */
+        public Builder<T> withParallelism(int parallelism) {
+            _reader.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param readAhead the maximum number of parsed records buffered for each part
+         */
+        public Builder<T> withReadAhead(int readAhead) {
+            _reader.readAhead = readAhead;
+            return this;
+        }
+
+        /**
+         * Use a shared executor instead of a pool owned by the reader. The executor is not shut down on close.
+         */
+        public Builder<T> withExecutorService(ExecutorService executorService) {
+            _reader.executorService = executorService;
+            return this;
+        }
+
+        public ParallelPartReader<T> build() {
+            if (_reader.parts == null || _reader.parser == null || _reader.parallelism <= 0 || _reader.readAhead <= 0) {
+                throw new IllegalStateException();
+            }
+            if (_reader.executorService == null) {
+                _reader.executorService = Executors.newFixedThreadPool(_reader.parallelism,
+                        new DaemonThreadFactory("part-reader"));
+                _reader.ownsExecutorService = true;
+            }
+            _reader.delegate = _reader.ordering == null ? _reader.new Unordered() : _reader.new Ordered();
+            return _reader;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return delegate.hasNext();
+    }
+
+    @Override
+    public T next() {
+        return delegate.next();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (ownsExecutorService) {
+            executorService.shutdownNow();
+        }
+        synchronized (cursors) {
+            for (PartCursor cursor : cursors) {
+                cursor.closeQuietly();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T unwrap(Object item) {
+        if (item instanceof Failure) {
+            close();
+            throw ((Failure) item).exception;
+        }
+        return (T) item;
+    }
+
+    /**
+     * Parts are read to completion by the pool and records are handed over through a single bounded queue, which the
+     * consumer drains in arrival order.
+     */
+    private class Unordered implements Iterator<T> {
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(readAhead * Math.min(parallelism,
+                Math.max(1, parts.size())));
+        private int remainingParts = parts.size();
+        private T nextItem;
+
+        Unordered() {
+            for (Path part : parts) {
+                executorService.execute(() -> readPart(part));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextItem == null && remainingParts > 0) {
+                Object item = take(queue);
+                if (item == END) {
+                    remainingParts--;
+                } else {
+                    nextItem = unwrap(item);
+                }
+            }
+            return nextItem != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T item = nextItem;
+            nextItem = null;
+            return item;
+        }
+
+        private void readPart(Path part) {
+            try (BufferedReader reader = DumpFiles.newReader(part)) {
+                String line;
+                while (!closed && (line = reader.readLine()) != null) {
+                    T record = parser.parse(line);
+                    if (record != null) {
+                        put(record);
+                    }
+                }
+                put(END);
+            } catch (IOException e) {
+                put(new Failure(part, e));
+            } catch (Throwable e) {
+                put(new Failure(part, new IOException(e)));
+            }
+        }
+
+        private void put(Object item) {
+            try {
+                while (!closed && !queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                    // wait for the consumer to make room
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Each part is read incrementally: a part is only scheduled on the pool while its buffer is below the read ahead
+     * limit, so a pool smaller than the number of parts never blocks on a part the merge is not consuming.
+     */
+    private class Ordered implements Iterator<T> {
+
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> ordering.compare(a.item, b.item));
+        private boolean initialized;
+
+        @Override
+        public boolean hasNext() {
+            if (!initialized) {
+                initialized = true;
+                synchronized (cursors) {
+                    for (Path part : parts) {
+                        cursors.add(new PartCursor(part));
+                    }
+                }
+                cursors.forEach(PartCursor::schedule);
+                for (PartCursor cursor : cursors) {
+                    advance(cursor);
+                }
+            }
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Head head = heads.poll();
+            advance(head.cursor);
+            return head.item;
+        }
+
+        private void advance(PartCursor cursor) {
+            Object item = cursor.take();
+            if (item != END) {
+                heads.add(new Head(unwrap(item), cursor));
+            }
+        }
+    }
+
+    private class Head {
+        final T item;
+        final PartCursor cursor;
+
+        Head(T item, PartCursor cursor) {
+            this.item = item;
+            this.cursor = cursor;
+        }
+    }
+
+    private class PartCursor {
+
+        private final Path part;
+        private final BlockingQueue<Object> buffer = new LinkedBlockingQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private BufferedReader reader;
+        private volatile boolean finished;
+
+        PartCursor(Path part) {
+            this.part = part;
+        }
+
+        Object take() {
+            Object item = ParallelPartReader.this.take(buffer);
+            if (buffer.size() <= readAhead / 2) {
+                schedule();
+            }
+            return item;
+        }
+
+        void schedule() {
+            if (!finished && !closed && scheduled.compareAndSet(false, true)) {
+                executorService.execute(this::fill);
+            }
+        }
+
+        private void fill() {
+            try {
+                synchronized (this) {
+                    if (reader == null) {
+                        reader = DumpFiles.newReader(part);
+                    }
+                    while (!closed && buffer.size() < readAhead) {
+                        String line = reader.readLine();
+                        if (line == null) {
+                            finish(END);
+                            return;
+                        }
+                        T record = parser.parse(line);
+                        if (record != null) {
+                            buffer.add(record);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                finish(new Failure(part, e));
+                return;
+            } catch (Throwable e) {
+                finish(new Failure(part, new IOException(e)));
+                return;
+            }
+            scheduled.set(false);
+            // The consumer may have drained the buffer between the last check and clearing the flag
+            if (buffer.size() <= readAhead / 2) {
+                schedule();
+            }
+        }
+
+        private void finish(Object last) {
+            finished = true;
+            closeQuietly();
+            buffer.add(last);
+        }
+
+        synchronized void closeQuietly() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing more can be done with a part being abandoned
+                }
+                reader = null;
+            }
+        }
+    }
+
+    private Object take(BlockingQueue<Object> queue) {
+        try {
+            Object item;
+            // Poll so a consumer waiting on a part is released when the reader is closed from another thread
+            while ((item = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                if (closed) {
+                    throw new IllegalStateException("Reader closed while waiting for the next record");
+                }
+            }
+            return item;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next record", e);
+        }
+    }
+
+    private static class Failure {
+        final UncheckedIOException exception;
+
+        Failure(Path part, IOException cause) {
+            this.exception = new UncheckedIOException("Failed reading part " + part, cause);
+        }
+    }
+}
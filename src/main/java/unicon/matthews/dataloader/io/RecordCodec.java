@@ -0,0 +1,16 @@
+package unicon.matthews.dataloader.io;
+
+import java.io.IOException;
+
+/**
+ * Converts records to and from a compact byte representation, used when records have to be spilled to temporary files.
+ *
+ * @param <T> the record type
+ */
+public interface RecordCodec<T> {
+
+    byte[] encode(T record) throws IOException;
+
+    T decode(byte[] bytes) throws IOException;
+
+}
@@ -0,0 +1,34 @@
+package unicon.matthews.dataloader.io.columnar;
+
+/**
+ * The primitive column types supported by the columnar cache format. Timestamps are stored as milliseconds since the
+ * epoch, strings are dictionary coded per block.
+ */
+public enum ColumnType {
+
+    BOOLEAN(1),
+    INT(2),
+    LONG(3),
+    DOUBLE(4),
+    TIMESTAMP(5),
+    STRING(6);
+
+    private final byte code;
+
+    ColumnType(int code) {
+        this.code = (byte) code;
+    }
+
+    byte getCode() {
+        return code;
+    }
+
+    static ColumnType fromCode(byte code) {
+        for (ColumnType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column type code " + code);
+    }
+}
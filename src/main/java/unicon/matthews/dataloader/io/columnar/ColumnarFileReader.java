@@ -0,0 +1,273 @@
+package unicon.matthews.dataloader.io.columnar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+import unicon.matthews.dataloader.util.StringDictionary;
+
+/**
+ * Reads a columnar cache file produced by {@link ColumnarFileWriter}. Each block is memory mapped and values are read
+ * straight out of the mapping, so only dictionary strings are decoded (once per block) and no per row parsing occurs.
+ *
+ * <pre>{@code
+ * try (ColumnarFileReader reader = ColumnarFileReader.open(cachePath)) {
+ *     int timestamp = reader.getSchema().indexOf("timestamp");
+ *     while (reader.next()) {
+ *         long eventTime = reader.getEpochMillis(timestamp);
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class ColumnarFileReader implements Closeable {
+
+    private final FileChannel channel;
+    private final ColumnarSchema schema;
+    private final StringDictionary stringDictionary;
+
+    private long nextBlockPosition;
+    private MappedByteBuffer block;
+    private int blockRowCount;
+    private int row = -1;
+    private boolean finished;
+
+    private final int[] validityOffsets;
+    private final int[] dataOffsets;
+    private final String[][] dictionaries;
+
+    private ColumnarFileReader(FileChannel channel, StringDictionary stringDictionary) throws IOException {
+        this.channel = channel;
+        this.stringDictionary = stringDictionary;
+
+        ByteBuffer headerLength = read(0, 4);
+        ByteBuffer header = read(4, headerLength.getInt());
+        if (header.getInt() != ColumnarFileWriter.MAGIC) {
+            throw new IOException("Not a columnar cache file");
+        }
+        short version = header.getShort();
+        if (version != ColumnarFileWriter.VERSION) {
+            throw new IOException("Unsupported columnar cache version " + version);
+        }
+        int columnCount = header.getInt();
+        ColumnarSchema.Builder builder = new ColumnarSchema.Builder();
+        for (int column = 0; column < columnCount; column++) {
+            ColumnType type = ColumnType.fromCode(header.get());
+            byte[] name = new byte[header.getShort()];
+            header.get(name);
+            builder.withColumn(new String(name, StandardCharsets.UTF_8), type);
+        }
+        this.schema = builder.build();
+        this.nextBlockPosition = 4L + header.capacity();
+
+        this.validityOffsets = new int[columnCount];
+        this.dataOffsets = new int[columnCount];
+        this.dictionaries = new String[columnCount][];
+    }
+
+    public static ColumnarFileReader open(Path path) throws IOException {
+        return open(path, null);
+    }
+
+    /**
+     * @param stringDictionary used to canonicalize dictionary strings across blocks, typically a per load instance, or
+     * null to only share strings within a block
+     */
+    public static ColumnarFileReader open(Path path, StringDictionary stringDictionary) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new ColumnarFileReader(channel, stringDictionary);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether a cache file exists and was written after all of the source files it was built from, so callers
+     * can decide between reloading the cache and parsing the original dump again. Only committed cache files exist
+     * under the cache path, so a file found here was written completely.
+     */
+    public static boolean isUpToDate(Path cache, Path... sources) throws IOException {
+        if (!Files.isRegularFile(cache)) {
+            return false;
+        }
+        long cacheModified = Files.getLastModifiedTime(cache).toMillis();
+        for (Path source : sources) {
+            if (Files.getLastModifiedTime(source).toMillis() > cacheModified) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public ColumnarSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Advances to the next row.
+     *
+     * @return false once all rows have been read
+     */
+    public boolean next() throws IOException {
+        if (finished) {
+            return false;
+        }
+        row++;
+        while (block == null || row >= blockRowCount) {
+            if (!loadNextBlock()) {
+                finished = true;
+                return false;
+            }
+            row = 0;
+        }
+        return true;
+    }
+
+    public boolean isNull(int column) {
+        checkRow();
+        int offset = validityOffsets[column] + (row >>> 6) * 8;
+        return (block.getLong(offset) & (1L << row)) == 0;
+    }
+
+    public boolean getBoolean(int column) {
+        check(column, ColumnType.BOOLEAN);
+        return block.get(dataOffsets[column] + row) != 0;
+    }
+
+    public int getInt(int column) {
+        check(column, ColumnType.INT);
+        return block.getInt(dataOffsets[column] + row * 4);
+    }
+
+    public long getLong(int column) {
+        check(column, ColumnType.LONG);
+        return block.getLong(dataOffsets[column] + row * 8);
+    }
+
+    public double getDouble(int column) {
+        check(column, ColumnType.DOUBLE);
+        return block.getDouble(dataOffsets[column] + row * 8);
+    }
+
+    public long getEpochMillis(int column) {
+        check(column, ColumnType.TIMESTAMP);
+        return block.getLong(dataOffsets[column] + row * 8);
+    }
+
+    /**
+     * @return the timestamp, or null if the value is null
+     */
+    public Instant getTimestamp(int column) {
+        check(column, ColumnType.TIMESTAMP);
+        return isNull(column) ? null : Instant.ofEpochMilli(getEpochMillis(column));
+    }
+
+    /**
+     * @return the string, or null if the value is null
+     */
+    public String getString(int column) {
+        check(column, ColumnType.STRING);
+        if (isNull(column)) {
+            return null;
+        }
+        return dictionaries[column][block.getInt(dataOffsets[column] + row * 4)];
+    }
+
+    @Override
+    public void close() throws IOException {
+        block = null;
+        channel.close();
+    }
+
+    private void check(int column, ColumnType expected) {
+        if (schema.getType(column) != expected) {
+            throw new IllegalArgumentException("Column " + schema.getName(column) + " is of type "
+                    + schema.getType(column) + ", not " + expected);
+        }
+        checkRow();
+    }
+
+    private void checkRow() {
+        if (finished || block == null || row < 0 || row >= blockRowCount) {
+            throw new IllegalStateException("No current row");
+        }
+    }
+
+    private boolean loadNextBlock() throws IOException {
+        if (nextBlockPosition + 4 > channel.size()) {
+            throw new IOException("Columnar cache file is truncated");
+        }
+        int length = read(nextBlockPosition, 4).getInt();
+        if (length == 0) {
+            block = null;
+            return false;
+        }
+        block = channel.map(FileChannel.MapMode.READ_ONLY, nextBlockPosition + 4, length);
+        block.order(ByteOrder.LITTLE_ENDIAN);
+        nextBlockPosition += 4L + length;
+
+        blockRowCount = block.getInt(0);
+        int bitmapBytes = ((blockRowCount + 63) >>> 6) * 8;
+        int offset = 4;
+        for (int column = 0; column < schema.getColumnCount(); column++) {
+            validityOffsets[column] = offset;
+            offset += bitmapBytes;
+            switch (schema.getType(column)) {
+                case BOOLEAN:
+                    dataOffsets[column] = offset;
+                    offset += blockRowCount;
+                    break;
+                case INT:
+                    dataOffsets[column] = offset;
+                    offset += blockRowCount * 4;
+                    break;
+                case LONG:
+                case TIMESTAMP:
+                case DOUBLE:
+                    dataOffsets[column] = offset;
+                    offset += blockRowCount * 8;
+                    break;
+                case STRING:
+                    String[] dictionary = new String[block.getInt(offset)];
+                    offset += 4;
+                    for (int code = 0; code < dictionary.length; code++) {
+                        byte[] bytes = new byte[block.getInt(offset)];
+                        offset += 4;
+                        block.position(offset);
+                        block.get(bytes);
+                        offset += bytes.length;
+                        String value = new String(bytes, StandardCharsets.UTF_8);
+                        dictionary[code] = stringDictionary == null ? value : stringDictionary.intern(value);
+                    }
+                    dictionaries[column] = dictionary;
+                    dataOffsets[column] = offset;
+                    offset += blockRowCount * 4;
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Columnar cache file is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
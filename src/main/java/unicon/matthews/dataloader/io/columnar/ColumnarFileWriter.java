@@ -0,0 +1,357 @@
+package unicon.matthews.dataloader.io.columnar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes rows of already parsed Canvas data into the compact columnar cache format read by {@link ColumnarFileReader}.
+ * Rows are buffered into blocks of primitive columns and each block is written column by column with a validity bitmap,
+ * so a later conversion pass can memory map the file and skip decompression, TSV splitting and date parsing entirely.
+ *
+ * <p>Columns which are not set before {@link #endRow()} are recorded as null. The rows are written to a temporary
+ * sibling of the cache file, which only replaces the cache file once {@link #commit()} is called; closing the writer
+ * without committing, e.g. because the conversion threw half way through, deletes the temporary file and leaves any
+ * previous cache untouched.
+ * <pre>{@code
+ * try (ColumnarFileWriter writer = new ColumnarFileWriter(cachePath, schema)) {
+ *     for (Request request : requests) {
+ *         writer.setLong(0, request.getId());
+ *         writer.setTimestamp(1, request.getTimestamp());
+ *         writer.setString(2, request.getCourseId().orElse(null));
+ *         writer.endRow();
+ *     }
+ *     writer.commit();
+ * }
+ * }</pre>
+ * </p>
+ *
+ * <h3>File layout</h3>
+ * All values are little endian.
+ * <pre>
+ * header: int headerLength, int magic, short version, int columnCount, { byte type, short nameLength, name }*
+ * block:  int blockLength, int rowCount, column*
+ * column: long[] validity bitmap, then
+ *         BOOLEAN byte[rows] | INT int[rows] | LONG, TIMESTAMP long[rows] | DOUBLE double[rows] |
+ *         STRING int dictionarySize, { int length, utf8 }*, int[rows] dictionary codes
+ * </pre>
+ * A file is terminated by a block length of zero, so a truncated file is detected as incomplete.
+ */
+public class ColumnarFileWriter implements Closeable {
+
+    static final int MAGIC = 0x444C4343; // "DLCC"
+    static final short VERSION = 1;
+
+    public static final int DEFAULT_BLOCK_ROWS = 64 * 1024;
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path path;
+    private final Path tempPath;
+    private final FileChannel channel;
+    private final ColumnarSchema schema;
+    private final int blockRows;
+
+    private final long[][] validity;
+    private final Object[] values;
+    private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+    private final List<List<byte[]>> dictionaryEntries = new ArrayList<>();
+
+    private int rowCount;
+    private long totalRows;
+    private boolean committed;
+    private boolean closed;
+
+    public ColumnarFileWriter(Path path, ColumnarSchema schema) throws IOException {
+        this(path, schema, DEFAULT_BLOCK_ROWS);
+    }
+
+    public ColumnarFileWriter(Path path, ColumnarSchema schema, int blockRows) throws IOException {
+        if (blockRows <= 0) {
+            throw new IllegalArgumentException("blockRows must be positive");
+        }
+        this.path = path;
+        this.tempPath = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+        this.schema = schema;
+        this.blockRows = blockRows;
+
+        int columnCount = schema.getColumnCount();
+        this.validity = new long[columnCount][(blockRows + 63) >>> 6];
+        this.values = new Object[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            switch (schema.getType(column)) {
+                case BOOLEAN:
+                    values[column] = new byte[blockRows];
+                    break;
+                case INT:
+                case STRING:
+                    values[column] = new int[blockRows];
+                    break;
+                case LONG:
+                case TIMESTAMP:
+                    values[column] = new long[blockRows];
+                    break;
+                case DOUBLE:
+                    values[column] = new double[blockRows];
+                    break;
+            }
+            dictionaries.add(schema.getType(column) == ColumnType.STRING ? new HashMap<>() : null);
+            dictionaryEntries.add(schema.getType(column) == ColumnType.STRING ? new ArrayList<>() : null);
+        }
+
+        this.channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeHeader();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public void setBoolean(int column, boolean value) {
+        ((byte[]) column(column, ColumnType.BOOLEAN))[rowCount] = (byte) (value ? 1 : 0);
+        markPresent(column);
+    }
+
+    public void setInt(int column, int value) {
+        ((int[]) column(column, ColumnType.INT))[rowCount] = value;
+        markPresent(column);
+    }
+
+    public void setLong(int column, long value) {
+        ((long[]) column(column, ColumnType.LONG))[rowCount] = value;
+        markPresent(column);
+    }
+
+    public void setDouble(int column, double value) {
+        ((double[]) column(column, ColumnType.DOUBLE))[rowCount] = value;
+        markPresent(column);
+    }
+
+    public void setEpochMillis(int column, long epochMillis) {
+        ((long[]) column(column, ColumnType.TIMESTAMP))[rowCount] = epochMillis;
+        markPresent(column);
+    }
+
+    /**
+     * @param value the timestamp, null values are recorded as null
+     */
+    public void setTimestamp(int column, Instant value) {
+        if (value == null) {
+            setNull(column);
+            return;
+        }
+        setEpochMillis(column, value.toEpochMilli());
+    }
+
+    /**
+     * @param value the string, null values are recorded as null
+     */
+    public void setString(int column, String value) {
+        int[] codes = (int[]) column(column, ColumnType.STRING);
+        if (value == null) {
+            setNull(column);
+            return;
+        }
+        Map<String, Integer> dictionary = dictionaries.get(column);
+        Integer code = dictionary.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.put(value, code);
+            dictionaryEntries.get(column).add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        codes[rowCount] = code;
+        markPresent(column);
+    }
+
+    public void setNull(int column) {
+        validity[column][rowCount >>> 6] &= ~(1L << rowCount);
+    }
+
+    /**
+     * Completes the current row, flushing the block to disk when it is full.
+     */
+    public void endRow() throws IOException {
+        rowCount++;
+        totalRows++;
+        if (rowCount == blockRows) {
+            flushBlock();
+        }
+    }
+
+    public long getRowCount() {
+        return totalRows;
+    }
+
+    /**
+     * Writes the remaining rows and the terminator, then atomically moves the completed file over the cache file.
+     */
+    public void commit() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        closed = true;
+        try {
+            if (rowCount > 0) {
+                flushBlock();
+            }
+            ByteBuffer terminator = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            terminator.putInt(0).flip();
+            writeFully(terminator);
+            channel.force(false);
+            channel.close();
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        } finally {
+            if (!committed) {
+                discard();
+            }
+        }
+    }
+
+    /**
+     * Discards the rows written so far unless {@link #commit()} was called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        discard();
+    }
+
+    private void discard() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private Object column(int column, ColumnType expected) {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        if (schema.getType(column) != expected) {
+            throw new IllegalArgumentException("Column " + schema.getName(column) + " is of type "
+                    + schema.getType(column) + ", not " + expected);
+        }
+        return values[column];
+    }
+
+    private void markPresent(int column) {
+        validity[column][rowCount >>> 6] |= 1L << rowCount;
+    }
+
+    private void writeHeader() throws IOException {
+        int length = 4 + 2 + 4;
+        byte[][] names = new byte[schema.getColumnCount()][];
+        for (int column = 0; column < names.length; column++) {
+            names[column] = schema.getName(column).getBytes(StandardCharsets.UTF_8);
+            length += 1 + 2 + names[column].length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(4 + length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(length).putInt(MAGIC).putShort(VERSION).putInt(names.length);
+        for (int column = 0; column < names.length; column++) {
+            header.put(schema.getType(column).getCode()).putShort((short) names[column].length).put(names[column]);
+        }
+        header.flip();
+        writeFully(header);
+    }
+
+    private void flushBlock() throws IOException {
+        int bitmapWords = (rowCount + 63) >>> 6;
+        int length = 4;
+        for (int column = 0; column < schema.getColumnCount(); column++) {
+            length += bitmapWords * 8 + dataLength(column);
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(4 + length).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(length).putInt(rowCount);
+        for (int column = 0; column < schema.getColumnCount(); column++) {
+            for (int word = 0; word < bitmapWords; word++) {
+                block.putLong(validity[column][word]);
+            }
+            switch (schema.getType(column)) {
+                case BOOLEAN:
+                    block.put((byte[]) values[column], 0, rowCount);
+                    break;
+                case INT:
+                    block.asIntBuffer().put((int[]) values[column], 0, rowCount);
+                    block.position(block.position() + rowCount * 4);
+                    break;
+                case LONG:
+                case TIMESTAMP:
+                    block.asLongBuffer().put((long[]) values[column], 0, rowCount);
+                    block.position(block.position() + rowCount * 8);
+                    break;
+                case DOUBLE:
+                    block.asDoubleBuffer().put((double[]) values[column], 0, rowCount);
+                    block.position(block.position() + rowCount * 8);
+                    break;
+                case STRING:
+                    List<byte[]> entries = dictionaryEntries.get(column);
+                    block.putInt(entries.size());
+                    for (byte[] entry : entries) {
+                        block.putInt(entry.length).put(entry);
+                    }
+                    block.asIntBuffer().put((int[]) values[column], 0, rowCount);
+                    block.position(block.position() + rowCount * 4);
+                    break;
+            }
+        }
+        block.flip();
+        writeFully(block);
+
+        for (int column = 0; column < schema.getColumnCount(); column++) {
+            Arrays.fill(validity[column], 0L);
+            if (dictionaries.get(column) != null) {
+                dictionaries.get(column).clear();
+                dictionaryEntries.get(column).clear();
+            }
+        }
+        rowCount = 0;
+    }
+
+    private int dataLength(int column) {
+        switch (schema.getType(column)) {
+            case BOOLEAN:
+                return rowCount;
+            case INT:
+                return rowCount * 4;
+            case LONG:
+            case TIMESTAMP:
+            case DOUBLE:
+                return rowCount * 8;
+            case STRING:
+                int length = 4 + rowCount * 4;
+                for (byte[] entry : dictionaryEntries.get(column)) {
+                    length += 4 + entry.length;
+                }
+                return length;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package unicon.matthews.dataloader.io.columnar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the ordered columns of a columnar cache file.
+ *
+ * <pre>{@code
+ * ColumnarSchema schema = new ColumnarSchema.Builder()
+ *     .withColumn("id", ColumnType.LONG)
+ *     .withColumn("timestamp", ColumnType.TIMESTAMP)
+ *     .withColumn("course_id", ColumnType.STRING)
+ *     .build();
+ * }</pre>
+ */
+public class ColumnarSchema {
+
+    private List<String> names = new ArrayList<>();
+    private List<ColumnType> types = new ArrayList<>();
+
+    private ColumnarSchema() {}
+
+    public static class Builder {
+        ColumnarSchema _schema = new ColumnarSchema();
+
+        public Builder withColumn(String name, ColumnType type) {
+            if (name == null || type == null) {
+                throw new IllegalArgumentException("Column name and type are required");
+            }
+            if (_schema.names.contains(name)) {
+                throw new IllegalArgumentException("Duplicate column " + name);
+            }
+            _schema.names.add(name);
+            _schema.types.add(type);
+            return this;
+        }
+
+        public ColumnarSchema build() {
+            if (_schema.names.isEmpty()) {
+                throw new IllegalStateException();
+            }
+            _schema.names = Collections.unmodifiableList(_schema.names);
+            _schema.types = Collections.unmodifiableList(_schema.types);
+            return _schema;
+        }
+    }
+
+    public int getColumnCount() {
+        return names.size();
+    }
+
+    public String getName(int column) {
+        return names.get(column);
+    }
+
+    public ColumnType getType(int column) {
+        return types.get(column);
+    }
+
+    /**
+     * @return the index of the named column, or -1 if the schema has no such column
+     */
+    public int indexOf(String name) {
+        return names.indexOf(name);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ColumnarSchema)) {
+            return false;
+        }
+        ColumnarSchema that = (ColumnarSchema) o;
+        return names.equals(that.names) && types.equals(that.types);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * names.hashCode() + types.hashCode();
+    }
+}
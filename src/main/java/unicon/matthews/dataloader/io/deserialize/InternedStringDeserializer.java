@@ -0,0 +1,22 @@
+package unicon.matthews.dataloader.io.deserialize;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import unicon.matthews.dataloader.util.StringDictionary;
+
+import java.io.IOException;
+
+/**
+ * Deserializes a <code>String</code> field through the default {@link StringDictionary}, so that values which repeat
+ * across many rows of the Canvas data dumps (course ids, account ids, user agents, etc.) share a single instance. Only
+ * annotate low cardinality fields with it, per row ids would just churn the dictionary.
+ * @see StringDictionary
+ */
+public class InternedStringDeserializer extends JsonDeserializer<String> {
+
+    @Override
+    public String deserialize(JsonParser jsonParser, DeserializationContext deserializationContext) throws IOException {
+        return StringDictionary.getDefault().intern(jsonParser.getText());
+    }
+}
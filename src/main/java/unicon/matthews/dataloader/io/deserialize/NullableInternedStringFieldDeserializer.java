@@ -0,0 +1,31 @@
+package unicon.matthews.dataloader.io.deserialize;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import unicon.matthews.dataloader.util.StringDictionary;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static unicon.matthews.dataloader.io.deserialize.DataFieldValueOptions.NULL;
+
+/**
+ * Deserializes a field of type <code>String</code> which may be NULL, which is represented as <em>\N</em> in the
+ * Canvas data dumps. Non null values are canonicalized through the default {@link StringDictionary}.
+ * <p>This deserializer returns an <code>Optional</code> to better designate that the field value is optional.</p>
+ * @see InternedStringDeserializer
+ */
+public class NullableInternedStringFieldDeserializer extends JsonDeserializer<Optional<String>> {
+
+    @Override
+    public Optional<String> deserialize(JsonParser jsonParser, DeserializationContext deserializationContext)
+            throws IOException {
+        String fieldValueText = jsonParser.getText();
+        String fieldValue = null;
+        if (!NULL.getFieldValue().equalsIgnoreCase(fieldValueText)) {
+            fieldValue = StringDictionary.getDefault().intern(fieldValueText);
+        }
+        return Optional.ofNullable(fieldValue);
+    }
+}
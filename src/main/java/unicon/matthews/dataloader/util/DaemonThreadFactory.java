@@ -0,0 +1,25 @@
+package unicon.matthews.dataloader.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named with a common prefix and a sequence number, e.g. <code>part-reader-1</code>, so
+ * background work never keeps the JVM alive after a load has finished and is easy to spot in a thread dump.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public DaemonThreadFactory(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,160 @@
+package unicon.matthews.dataloader.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread safe dictionary used to canonicalize repeated, low cardinality <code>String</code> values (course ids,
+ * account ids, user agents, Caliper vocabulary IRIs, etc.) so that equal values read from the Canvas data dumps share a
+ * single instance instead of each row allocating its own copy. Per row identifiers never repeat and should not be
+ * interned, they only displace the values that do.
+ *
+ * <p>Unlike {@link String#intern()} the dictionary is private to the data loader, is bounded by both the number of
+ * entries and the length of the values it will accept, and keeps track of how many bytes it saved. When the dictionary
+ * fills up it is cleared and starts over, so it keeps following the values currently being loaded while memory use
+ * never grows beyond the configured bounds.</p>
+ *
+ * <p>The small {@link #getDefault() default} instance is for deserializers and builders which cannot be handed an
+ * instance. Loaders can create a dedicated one per load and {@link #clear()} it when the load is done:
+ * <pre>{@code
+ * StringDictionary dictionary = new StringDictionary(100_000, 256);
+ * String courseId = dictionary.intern(rawCourseId);
+ * }</pre>
+ * </p>
+ */
+public class StringDictionary {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    // Approximate retained size of a String on a 64 bit JVM with compressed oops: String object (24 bytes) plus the
+    // backing char[] header (16 bytes), the character data itself is added per value.
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private static final StringDictionary DEFAULT = new StringDictionary(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_LENGTH);
+
+    private final ConcurrentMap<String, String> entries;
+    private final int maxEntries;
+    private final int maxLength;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * @param maxEntries the maximum number of distinct values held by the dictionary
+     * @param maxLength values longer than this many characters are never stored, as they are unlikely to repeat
+     */
+    public StringDictionary(int maxEntries, int maxLength) {
+        if (maxEntries <= 0 || maxLength <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxLength must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxLength = maxLength;
+        this.entries = new ConcurrentHashMap<>(Math.min(maxEntries, 1 << 16));
+    }
+
+    /**
+     * @return the shared dictionary used by the deserializers and {@link unicon.matthews.dataloader.converter.EventBuilderUtils}
+     */
+    public static StringDictionary getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the canonical instance for the given value, adding it to the dictionary if there is room.
+     *
+     * @param value the value to canonicalize, may be null
+     * @return the canonical instance equal to <code>value</code>, or <code>value</code> itself if it was not stored
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String canonical = entries.get(value);
+        if (canonical != null) {
+            hits.increment();
+            if (canonical != value) {
+                bytesSaved.add(estimateSize(value));
+            }
+            return canonical;
+        }
+        if (value.length() > maxLength) {
+            rejected.increment();
+            return value;
+        }
+        if (entries.size() >= maxEntries) {
+            reset();
+        }
+        canonical = entries.putIfAbsent(value, value);
+        if (canonical == null) {
+            misses.increment();
+            return value;
+        }
+        // Lost a race with another thread adding the same value
+        hits.increment();
+        bytesSaved.add(estimateSize(value));
+        return canonical;
+    }
+
+    /**
+     * Removes all values from the dictionary. Statistics are retained.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of values passed through without being stored because they were too long
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the number of times the dictionary filled up and was cleared
+     */
+    public long getResets() {
+        return resets.sum();
+    }
+
+    /**
+     * @return an estimate of the heap bytes saved by returning a canonical instance instead of retaining a duplicate
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "StringDictionary{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", rejected=" + getRejected() + ", resets=" + getResets() + ", bytesSaved=" + getBytesSaved() + "}";
+    }
+
+    private synchronized void reset() {
+        // Re-check, another thread may have already cleared the dictionary
+        if (entries.size() >= maxEntries) {
+            entries.clear();
+            resets.increment();
+        }
+    }
+
+    private static long estimateSize(String value) {
+        return STRING_OVERHEAD_BYTES + 2L * value.length();
+    }
+}
@@ -0,0 +1,175 @@
+package unicon.matthews.dataloader.io.columnar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ColumnarFileRoundTripTest {
+
+    private static final ColumnarSchema SCHEMA = new ColumnarSchema.Builder()
+            .withColumn("flag", ColumnType.BOOLEAN)
+            .withColumn("count", ColumnType.INT)
+            .withColumn("id", ColumnType.LONG)
+            .withColumn("score", ColumnType.DOUBLE)
+            .withColumn("timestamp", ColumnType.TIMESTAMP)
+            .withColumn("course", ColumnType.STRING)
+            .build();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsValuesAndNullsAcrossBlocks() throws IOException {
+        Path cache = temporaryFolder.getRoot().toPath().resolve("requests.dlc");
+        int rows = 1000;
+        // Small blocks so the rows span many blocks, each with its own string dictionary, and end with a partial one
+        try (ColumnarFileWriter writer = new ColumnarFileWriter(cache, SCHEMA, 64)) {
+            for (int row = 0; row < rows; row++) {
+                writeRow(writer, row);
+            }
+            writer.commit();
+        }
+        assertFalse(Files.exists(temporaryFolder.getRoot().toPath().resolve("requests.dlc.tmp")));
+
+        try (ColumnarFileReader reader = ColumnarFileReader.open(cache)) {
+            assertEquals(SCHEMA, reader.getSchema());
+            for (int row = 0; row < rows; row++) {
+                assertTrue(reader.next());
+                assertRow(reader, row);
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void roundTripsEmptyFile() throws IOException {
+        Path cache = temporaryFolder.getRoot().toPath().resolve("empty.dlc");
+        try (ColumnarFileWriter writer = new ColumnarFileWriter(cache, SCHEMA)) {
+            writer.commit();
+        }
+
+        try (ColumnarFileReader reader = ColumnarFileReader.open(cache)) {
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void closeWithoutCommitKeepsPreviousCache() throws IOException {
+        Path cache = temporaryFolder.getRoot().toPath().resolve("requests.dlc");
+        try (ColumnarFileWriter writer = new ColumnarFileWriter(cache, SCHEMA)) {
+            writeRow(writer, 1);
+            writer.commit();
+        }
+
+        try (ColumnarFileWriter writer = new ColumnarFileWriter(cache, SCHEMA, 2)) {
+            for (int row = 0; row < 5; row++) {
+                writeRow(writer, row);
+            }
+        }
+        assertFalse(Files.exists(temporaryFolder.getRoot().toPath().resolve("requests.dlc.tmp")));
+
+        try (ColumnarFileReader reader = ColumnarFileReader.open(cache)) {
+            assertTrue(reader.next());
+            assertRow(reader, 1);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void rejectsAccessWithoutCurrentRow() throws IOException {
+        Path cache = temporaryFolder.getRoot().toPath().resolve("requests.dlc");
+        try (ColumnarFileWriter writer = new ColumnarFileWriter(cache, SCHEMA)) {
+            writeRow(writer, 1);
+            writer.commit();
+        }
+
+        try (ColumnarFileReader reader = ColumnarFileReader.open(cache)) {
+            assertNoCurrentRow(reader);
+            assertTrue(reader.next());
+            assertFalse(reader.next());
+            assertNoCurrentRow(reader);
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        Path cache = temporaryFolder.getRoot().toPath().resolve("requests.dlc");
+        try (ColumnarFileWriter writer = new ColumnarFileWriter(cache, SCHEMA, 4)) {
+            for (int row = 0; row < 10; row++) {
+                writeRow(writer, row);
+            }
+            writer.commit();
+        }
+        byte[] bytes = Files.readAllBytes(cache);
+        Files.write(cache, Arrays.copyOf(bytes, bytes.length - 4));
+
+        try (ColumnarFileReader reader = ColumnarFileReader.open(cache)) {
+            while (reader.next()) {
+                // read until the missing terminator
+            }
+            fail("Expected the truncated file to be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertNoCurrentRow(ColumnarFileReader reader) {
+        try {
+            reader.isNull(0);
+            fail("Expected no current row");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static void writeRow(ColumnarFileWriter writer, int row) throws IOException {
+        writer.setBoolean(0, row % 2 == 0);
+        if (row % 3 != 0) {
+            writer.setInt(1, row);
+        }
+        writer.setLong(2, Long.MAX_VALUE - row);
+        if (row % 5 != 0) {
+            writer.setDouble(3, row / 4.0);
+        }
+        writer.setTimestamp(4, row % 7 == 0 ? null : Instant.ofEpochMilli(1_500_000_000_000L + row));
+        writer.setString(5, row % 11 == 0 ? null : "course-" + (row % 13));
+        writer.endRow();
+    }
+
+    private static void assertRow(ColumnarFileReader reader, int row) {
+        assertEquals(row % 2 == 0, reader.getBoolean(0));
+        if (row % 3 == 0) {
+            assertTrue(reader.isNull(1));
+        } else {
+            assertEquals(row, reader.getInt(1));
+        }
+        assertEquals(Long.MAX_VALUE - row, reader.getLong(2));
+        if (row % 5 == 0) {
+            assertTrue(reader.isNull(3));
+        } else {
+            assertEquals(row / 4.0, reader.getDouble(3), 0.0);
+        }
+        if (row % 7 == 0) {
+            assertNull(reader.getTimestamp(4));
+        } else {
+            assertEquals(Instant.ofEpochMilli(1_500_000_000_000L + row), reader.getTimestamp(4));
+        }
+        if (row % 11 == 0) {
+            assertNull(reader.getString(5));
+        } else {
+            assertEquals("course-" + (row % 13), reader.getString(5));
+        }
+    }
+}